@@ -0,0 +1,64 @@
+package QtlSimulator.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import QtlSimulator.CellcountMatrix;
+import QtlSimulator.QtlRowSimulator;
+import QtlSimulator.SimulationConfig;
+import QtlSimulator.Simulator;
+
+public class BenchmarkData {
+	/*
+	 * Shared setup of the benchmarks: config, cellcounts and a row simulator for a given sample size and number of celltypes
+	 */
+	public static final long SEED = 42;
+	public static final double[] GENOTYPE_COEFFICIENT_GROUPS = new double[]{5, 1, -1, -5};
+	public static final double[] INTERACTION_COEFFICIENT_GROUPS = new double[]{5, 1, -1, -5};
+	public static final double[] MINOR_ALLELE_FREQUENCY_GROUPS = new double[]{0.01, 0.1, 0.5};
+
+	public static SimulationConfig config(int sampleSize, int numberOfCelltypes){
+		return (SimulationConfig.builder().sampleSize(sampleSize).cellcountPercentages(cellcountPercentages(numberOfCelltypes))
+				.numberOfQtls(1000).seed(SEED).genotypeCoefficientGroups(GENOTYPE_COEFFICIENT_GROUPS)
+				.interactionCoefficientGroups(INTERACTION_COEFFICIENT_GROUPS).minorAlleleFrequencyGroups(MINOR_ALLELE_FREQUENCY_GROUPS).build());
+	}
+
+	public static double[] cellcountPercentages(int numberOfCelltypes){
+		switch(numberOfCelltypes){
+		case 2: return (new double[]{80, 20});
+		case 4: return (new double[]{70, 20, 7, 3});
+		case 8: return (new double[]{40, 20, 10, 10, 8, 5, 4, 3});
+		default: throw new IllegalArgumentException("No cellcount percentages for "+Integer.toString(numberOfCelltypes)+" celltypes");
+		}
+	}
+
+	public static CellcountMatrix cellcounts(SimulationConfig config){
+		return (new Simulator(config).getCellcountMatrix());
+	}
+
+	public static QtlRowSimulator rowSimulator(SimulationConfig config){
+		return (new QtlRowSimulator(config, cellcounts(config)));
+	}
+
+	public static class CountingChannel implements WritableByteChannel {
+		/*
+		 * Discards everything written to it and counts the bytes, so that the writer benchmarks measure
+		 * formatting and compression and not the disk
+		 */
+		private long bytesWritten = 0;
+		public int write(ByteBuffer source){
+			int length = source.remaining();
+			source.position(source.limit());
+			bytesWritten += length;
+			return (length);
+		}
+		public long getBytesWritten(){
+			return (bytesWritten);
+		}
+		public boolean isOpen(){
+			return (true);
+		}
+		public void close(){
+		}
+	}
+}
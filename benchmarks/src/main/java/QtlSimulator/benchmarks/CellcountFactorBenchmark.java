@@ -0,0 +1,54 @@
+package QtlSimulator.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import QtlSimulator.CellcountMatrix;
+import QtlSimulator.GaussianSampler;
+import QtlSimulator.QtlRowSimulator;
+
+/*
+ * Sampling the cellcount factors of one QTL row, N(scaled cellcount, 1) for every sample and celltype, with the same
+ * QtlRowSimulator.sampleCellcountFactors() as the row simulation. Score is QTL-rows/s
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CellcountFactorBenchmark {
+	@Param({"100", "1000", "10000"})
+	public int sampleSize;
+	@Param({"2", "4", "8"})
+	public int numberOfCelltypes;
+	private CellcountMatrix cellcountMatrix;
+	private GaussianSampler random;
+	private double[] cellcountFactors;
+
+	@Setup
+	public void setup() throws Exception{
+		cellcountMatrix = BenchmarkData.cellcounts(BenchmarkData.config(sampleSize, numberOfCelltypes));
+		random = new GaussianSampler(BenchmarkData.SEED);
+		cellcountFactors = new double[sampleSize];
+	}
+
+	@Benchmark
+	public double[] sampleCellcountFactors(){
+		for (int c = 0; c < cellcountMatrix.getNumberOfCelltypes(); c++){
+			QtlRowSimulator.sampleCellcountFactors(random, cellcountMatrix.getScaledCellcounts(c), cellcountFactors);
+		}
+		return (cellcountFactors);
+	}
+}
@@ -0,0 +1,49 @@
+package QtlSimulator.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import QtlSimulator.CellcountMatrix;
+import QtlSimulator.CellcountSimulator;
+import QtlSimulator.SimulationConfig;
+
+/*
+ * Simulating and scaling the cellcounts of all samples, before any QTL is simulated. Score is ms per cellcount matrix
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CellcountSimulationBenchmark {
+	@Param({"10000", "1000000"})
+	public int sampleSize;
+	@Param({"normal", "dirichlet"})
+	public String cellcountModel;
+	@Param({"1", "4"})
+	public int threads;
+	private SimulationConfig config;
+
+	@Setup
+	public void setup(){
+		config = SimulationConfig.builder().sampleSize(sampleSize).cellcountPercentages(BenchmarkData.cellcountPercentages(4))
+				.cellcountModel(cellcountModel).seed(BenchmarkData.SEED).threads(threads).build();
+	}
+
+	@Benchmark
+	public CellcountMatrix simulateCellcounts(){
+		return (CellcountSimulator.simulate(config));
+	}
+}
@@ -0,0 +1,50 @@
+package QtlSimulator.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import QtlSimulator.QtlRowSimulator;
+import QtlSimulator.SimulatedQtl;
+
+/*
+ * Simulation of one QTL row (all samples and celltypes) into the arrays of the previous row, like QtlSimulator reuses
+ * rows through SimulatedQtlIterator.recycle(). Score is QTL-rows/s
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QtlRowBenchmark {
+	@Param({"100", "1000", "10000"})
+	public int sampleSize;
+	@Param({"2", "4", "8"})
+	public int numberOfCelltypes;
+	private QtlRowSimulator rowSimulator;
+	private int qtl = 0;
+	private SimulatedQtl row = null;
+
+	@Setup
+	public void setup() throws Exception{
+		rowSimulator = BenchmarkData.rowSimulator(BenchmarkData.config(sampleSize, numberOfCelltypes));
+	}
+
+	@Benchmark
+	public SimulatedQtl simulateRow(){
+		qtl = qtl % rowSimulator.getNumberOfQtls() + 1;
+		row = rowSimulator.simulate(qtl, row);
+		return (row);
+	}
+}
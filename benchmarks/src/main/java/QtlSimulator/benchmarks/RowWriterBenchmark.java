@@ -0,0 +1,106 @@
+package QtlSimulator.benchmarks;
+
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import QtlSimulator.BinaryMatrixHeader;
+import QtlSimulator.BinaryMatrixWriter;
+import QtlSimulator.ChannelOutput;
+import QtlSimulator.MatrixWriter;
+import QtlSimulator.QtlSimulator;
+import QtlSimulator.SimulatedQtl;
+import QtlSimulator.TsvMatrixWriter;
+import io.airlift.compress.zstd.ZstdOutputStream;
+
+/*
+ * Formatting and writing one row of the expression, genotype or info matrix per output path. The output is counted and
+ * discarded, so the score measures formatting and compression, not the disk. The info file is csv for every output path,
+ * like in QtlSimulator, so info with binary measures the uncompressed csv. Score is QTL-rows/s, the bytes counter is output bytes/s
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowWriterBenchmark {
+	@Param({"100", "1000", "10000"})
+	public int sampleSize;
+	@Param({"csv", "binary", "csv-gzip", "csv-zstd"})
+	public String outputPath;
+	@Param({"expression", "genotypes", "info"})
+	public String matrix;
+	private SimulatedQtl row;
+	private BenchmarkData.CountingChannel countingChannel;
+	private MatrixWriter writer;
+	private TsvMatrixWriter infoWriter;
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class WrittenBytes {
+		public long bytes;
+		@Setup(Level.Iteration)
+		public void reset(){
+			bytes = 0;
+		}
+	}
+
+	@Setup
+	public void setup() throws Exception{
+		row = BenchmarkData.rowSimulator(BenchmarkData.config(sampleSize, 4)).simulate(1);
+		countingChannel = new BenchmarkData.CountingChannel();
+		WritableByteChannel channel = countingChannel;
+		if(outputPath.equals("csv-gzip")){
+			channel = Channels.newChannel(new GZIPOutputStream(Channels.newOutputStream(countingChannel), TsvMatrixWriter.BUFFER_SIZE));
+		}
+		else if(outputPath.equals("csv-zstd")){
+			channel = Channels.newChannel(new ZstdOutputStream(Channels.newOutputStream(countingChannel)));
+		}
+		ChannelOutput output = new ChannelOutput(channel, TsvMatrixWriter.BUFFER_SIZE);
+		if(matrix.equals("info")){
+			infoWriter = new TsvMatrixWriter(output, 6);
+		}
+		else if(outputPath.equals("binary")){
+			String[] sampleNames = new String[sampleSize];
+			for (int s = 0; s < sampleSize; s++){
+				sampleNames[s] = "sample_"+Integer.toString(s);
+			}
+			byte matrixType = matrix.equals("genotypes") ? BinaryMatrixHeader.GENOTYPES : BinaryMatrixHeader.FLOAT32;
+			writer = new BinaryMatrixWriter(output, new BinaryMatrixHeader(matrixType, Long.MAX_VALUE, 1, "QTL_", sampleNames));
+		}
+		else{
+			writer = new TsvMatrixWriter(output, 6);
+		}
+	}
+
+	@Benchmark
+	public void writeRow(WrittenBytes writtenBytes) throws Exception{
+		long bytesBefore = countingChannel.getBytesWritten();
+		if(matrix.equals("expression")){
+			writer.writeRow(row.getQtlName(), row.getExpression());
+		}
+		else if(matrix.equals("genotypes")){
+			writer.writeRow(row.getQtlName(), row.getGenotypes());
+		}
+		else{
+			QtlSimulator.writeInfoRow(row, infoWriter);
+		}
+		writtenBytes.bytes += countingChannel.getBytesWritten() - bytesBefore;
+	}
+}
@@ -0,0 +1,283 @@
+package QtlSimulator;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BackgroundWriter implements Closeable {
+	private final BlockingQueue<ByteBuffer> freeBuffers;
+	private final BlockingQueue<Job> jobs;
+	private final Thread writerThread;
+	private final RunMetrics runMetrics;
+	private final Map<String, OutputFile> openFiles = Collections.synchronizedMap(new LinkedHashMap<String, OutputFile>());
+	private final Map<String, Long> headerSizes = Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+	private volatile IOException writeError;
+	private static final int WRITE = 0;
+	private static final int CLOSE = 1;
+	private static final int CHECKPOINT = 2;
+	private static final int STOP_WRITER = 3;
+	private static final int END_HEADERS = 4;
+	private static final int OPEN = 5;
+	private static class Job {
+		private final int type;
+		private final String fileName;
+		private final ByteBuffer buffer;
+		private final AtomicLong bytesWritten;
+		private final Checkpoint checkpoint;
+		private final File outfolder;
+		private final OutputFile file;
+		private Job(int type, String fileName, ByteBuffer buffer, AtomicLong bytesWritten, Checkpoint checkpoint, File outfolder, OutputFile file){
+			this.type = type;
+			this.fileName = fileName;
+			this.buffer = buffer;
+			this.bytesWritten = bytesWritten;
+			this.checkpoint = checkpoint;
+			this.outfolder = outfolder;
+			this.file = file;
+		}
+	}
+	private static final Job STOP = new Job(STOP_WRITER, null, null, null, null, null, null);
+	public BackgroundWriter(int numberOfBuffers, int bufferSize, RunMetrics runMetrics){
+		/*
+		 * Writes (and compresses) filled buffers of all output files on one dedicated thread, so that simulating and writing overlap.
+		 * There is a fixed pool of buffers; when all buffers are waiting to be written, writers block until one is free again
+		 *
+		 * @param numberOfBuffers Number of buffers in the pool, at least 2
+		 *
+		 * @param bufferSize Size of each buffer in bytes
+		 *
+		 * @param runMetrics Metrics to add the bytes written per file, the I/O time and the time waiting for free buffers to
+		 */
+		if(numberOfBuffers < 2){
+			throw new IllegalArgumentException("Background writer needs at least 2 buffers, got: "+Integer.toString(numberOfBuffers));
+		}
+		this.runMetrics = runMetrics;
+		freeBuffers = new ArrayBlockingQueue<ByteBuffer>(numberOfBuffers);
+		for (int i = 0; i < numberOfBuffers; i++){
+			freeBuffers.add(ByteBuffer.allocate(bufferSize));
+		}
+		// the queue is bounded by the buffer pool: a writer can only submit a buffer it took from the pool
+		jobs = new LinkedBlockingQueue<Job>();
+		writerThread = new Thread(new Runnable() {
+			public void run(){
+				writeJobs();
+			}
+		}, "QtlSimulator-writer");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	public ByteBufferOutput newOutput(final String fileName, OutputFile file) throws IOException{
+		/*
+		 * @param fileName Name of the file in the outfolder, to report the bytes written to it and its size at checkpoints
+		 *
+		 * @param file File to write to. It is only used from the writer thread
+		 *
+		 * @return Output that writes to the file from the writer thread
+		 */
+		final AtomicLong bytesWritten = runMetrics.registerFile(fileName);
+		// the file is added on the writer thread, so that checkpoints that were submitted before do not include it
+		try {
+			submit(new Job(OPEN, fileName, null, null, null, null, file));
+		} catch (IOException e) {
+			try {
+				file.close();
+			} catch (IOException closeError) {
+				e.addSuppressed(closeError);
+			}
+			throw e;
+		}
+		return new ByteBufferOutput() {
+			public ByteBuffer getBuffer() throws IOException{
+				return (takeFreeBuffer());
+			}
+			public void write(ByteBuffer filledBuffer) throws IOException{
+				submit(new Job(WRITE, fileName, filledBuffer, bytesWritten, null, null, null));
+			}
+			public void close() throws IOException{
+				submit(new Job(CLOSE, fileName, null, bytesWritten, null, null, null));
+			}
+		};
+	}
+
+	public void checkpoint(Checkpoint checkpoint, File outfolder) throws IOException{
+		/*
+		 * Write a checkpoint from the writer thread, after all buffers handed over so far are written. Writers have to
+		 * hand over their partially filled buffers first. The compression of every open file is finished, see
+		 * OutputFile.checkpoint(), and the file sizes are added to the checkpoint before it is written. This does not wait
+		 * for the writer thread, so simulating goes on while the files catch up
+		 *
+		 * @param checkpoint Checkpoint of the rows handed over so far, without file sizes
+		 *
+		 * @param outfolder Folder to write the checkpoint to
+		 */
+		submit(new Job(CHECKPOINT, null, null, null, checkpoint, outfolder, null));
+	}
+
+	public void endHeaders() throws IOException{
+		/*
+		 * Finish the compressed member or frame of every open file after the headers, from the writer thread like
+		 * checkpoint(). The sizes are added to every later checkpoint and can be read with getHeaderSizes() after close(),
+		 * so that the merger can copy a shard without its header without decompressing it
+		 */
+		submit(new Job(END_HEADERS, null, null, null, null, null, null));
+	}
+
+	public void setHeaderSize(String fileName, long headerSize){
+		/*
+		 * Header size of a file whose header was written before, e.g. by the run that is resumed
+		 */
+		headerSizes.put(fileName, headerSize);
+	}
+
+	public Map<String, Long> getHeaderSizes(){
+		/*
+		 * @return Size of the header of the files, complete after close()
+		 */
+		synchronized (headerSizes) {
+			return (new LinkedHashMap<String, Long>(headerSizes));
+		}
+	}
+
+	private ByteBuffer takeFreeBuffer() throws IOException{
+		checkError();
+		try {
+			ByteBuffer buffer = freeBuffers.poll();
+			if(buffer == null){
+				// all buffers are waiting to be written, the writer thread is the bottleneck
+				long waitStart = System.nanoTime();
+				buffer = freeBuffers.take();
+				runMetrics.addOutputWaitNanos(System.nanoTime() - waitStart);
+			}
+			return (buffer);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for a free output buffer", e);
+		}
+	}
+
+	private void submit(Job job) throws IOException{
+		checkError();
+		try {
+			jobs.put(job);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while handing over an output buffer", e);
+		}
+	}
+
+	private void writeJobs(){
+		while(true){
+			Job job;
+			try {
+				job = jobs.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if(job == STOP){
+				closeOpenFiles();
+				return;
+			}
+			long ioStart = System.nanoTime();
+			try {
+				if(job.type == OPEN){
+					// also after an error, so that the file is closed when the writer stops
+					openFiles.put(job.fileName, job.file);
+				}
+				else if(job.type == CLOSE){
+					openFiles.remove(job.fileName).close();
+				}
+				else if(job.type == CHECKPOINT){
+					// after an error the files are not complete up to the checkpoint, the previous checkpoint is kept
+					if(writeError == null){
+						synchronized (openFiles) {
+							for (Map.Entry<String, OutputFile> file : openFiles.entrySet()){
+								job.checkpoint.setFileSize(file.getKey(), file.getValue().checkpoint());
+							}
+						}
+						synchronized (headerSizes) {
+							for (Map.Entry<String, Long> headerSize : headerSizes.entrySet()){
+								job.checkpoint.setHeaderSize(headerSize.getKey(), headerSize.getValue());
+							}
+						}
+						job.checkpoint.write(job.outfolder);
+					}
+				}
+				else if(job.type == END_HEADERS){
+					if(writeError == null){
+						synchronized (openFiles) {
+							for (Map.Entry<String, OutputFile> file : openFiles.entrySet()){
+								headerSizes.put(file.getKey(), file.getValue().checkpoint());
+							}
+						}
+					}
+				}
+				else if(writeError == null){
+					OutputFile file = openFiles.get(job.fileName);
+					job.buffer.flip();
+					job.bytesWritten.addAndGet(job.buffer.remaining());
+					while(job.buffer.hasRemaining()){
+						file.write(job.buffer);
+					}
+				}
+			} catch (IOException e) {
+				if(writeError == null){
+					writeError = e;
+				}
+			}
+			runMetrics.addIoNanos(System.nanoTime() - ioStart);
+			if(job.buffer != null){
+				// buffers are always given back, also after an error, so writers never block forever
+				job.buffer.clear();
+				freeBuffers.add(job.buffer);
+			}
+		}
+	}
+
+	private void closeOpenFiles(){
+		/*
+		 * Close the files of outputs that were not closed, e.g. because writing failed, so that no file handles are left open
+		 */
+		synchronized (openFiles) {
+			for (OutputFile file : openFiles.values()){
+				try {
+					file.close();
+				} catch (IOException e) {
+					if(writeError == null){
+						writeError = e;
+					}
+				}
+			}
+			openFiles.clear();
+		}
+	}
+
+	private void checkError() throws IOException{
+		if(writeError != null){
+			throw new IOException("Writing output failed", writeError);
+		}
+	}
+
+	public void close() throws IOException{
+		/*
+		 * Wait until all submitted buffers are written and stop the writer thread. Outputs have to be closed before,
+		 * files of outputs that are still open are closed without writing their last buffer
+		 */
+		try {
+			jobs.put(STOP);
+			writerThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the writer thread", e);
+		}
+		checkError();
+	}
+}
@@ -0,0 +1,167 @@
+package QtlSimulator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class BinaryMatrixHeader {
+	/*
+	 * Header of the binary matrix format, all numbers little-endian:
+	 *
+	 *   magic "QTLSIM" | version (byte) | matrix type (byte)
+	 *   number of rows (int64) | number of columns (int32) | first row number (int64) | offset of the data (int64)
+	 *   row name prefix (int32 length + UTF-8) | column names (int32 length + UTF-8 each)
+	 *   zero padding up to the data offset (multiple of 8)
+	 *
+	 * followed by the rows, each getRowSize() bytes. Row i is named <row name prefix><first row number + i>, e.g. QTL_1, QTL_2, ...
+	 * GENOTYPES rows have 2 bits per sample, sample s is in byte s/4 at bits 2*(s%4). FLOAT32 rows have a float per sample.
+	 */
+	public static final byte[] MAGIC = "QTLSIM".getBytes(StandardCharsets.US_ASCII);
+	public static final byte VERSION = 1;
+	public static final byte GENOTYPES = 1;
+	public static final byte FLOAT32 = 2;
+	private static final int FIXED_SIZE = MAGIC.length + 2 + 8 + 4 + 8 + 8;
+	private final byte matrixType;
+	private final long numberOfRows;
+	private final long firstRowNumber;
+	private final String rowNamePrefix;
+	private final String[] columnNames;
+	public BinaryMatrixHeader(byte matrixType, long numberOfRows, long firstRowNumber, String rowNamePrefix, String[] columnNames){
+		/*
+		 * @param matrixType GENOTYPES or FLOAT32
+		 *
+		 * @param numberOfRows Number of rows in the matrix
+		 *
+		 * @param firstRowNumber Number of the first row, e.g. 1 for QTL_1
+		 *
+		 * @param rowNamePrefix Prefix of the row names, e.g. QTL_
+		 *
+		 * @param columnNames Names of the columns (samples)
+		 */
+		if(matrixType != GENOTYPES && matrixType != FLOAT32){
+			throw new IllegalArgumentException("Unknown binary matrix type: "+Byte.toString(matrixType));
+		}
+		this.matrixType = matrixType;
+		this.numberOfRows = numberOfRows;
+		this.firstRowNumber = firstRowNumber;
+		this.rowNamePrefix = rowNamePrefix;
+		this.columnNames = columnNames;
+	}
+
+	public static BinaryMatrixHeader read(FileChannel channel) throws IOException{
+		/*
+		 * Read the header from the start of a binary matrix file
+		 */
+		ByteBuffer fixedHeader = ByteBuffer.allocate(FIXED_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, fixedHeader, 0);
+		byte[] magic = new byte[MAGIC.length];
+		fixedHeader.get(magic);
+		if(!Arrays.equals(magic, MAGIC)){
+			throw new IOException("Not a binary QtlSimulator matrix");
+		}
+		byte version = fixedHeader.get();
+		if(version != VERSION){
+			throw new IOException("Unsupported binary matrix version "+Byte.toString(version));
+		}
+		byte matrixType = fixedHeader.get();
+		long numberOfRows = fixedHeader.getLong();
+		int numberOfColumns = fixedHeader.getInt();
+		long firstRowNumber = fixedHeader.getLong();
+		long dataOffset = fixedHeader.getLong();
+
+		ByteBuffer names = ByteBuffer.allocate((int) (dataOffset - FIXED_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, names, FIXED_SIZE);
+		String rowNamePrefix = getString(names);
+		String[] columnNames = new String[numberOfColumns];
+		for (int c = 0; c < numberOfColumns; c++){
+			columnNames[c] = getString(names);
+		}
+		return (new BinaryMatrixHeader(matrixType, numberOfRows, firstRowNumber, rowNamePrefix, columnNames));
+	}
+
+	public ByteBuffer toBytes(){
+		/*
+		 * @return The header including padding, ready to be written
+		 */
+		int headerSize = getDataOffset();
+		ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+		header.put(MAGIC);
+		header.put(VERSION);
+		header.put(matrixType);
+		header.putLong(numberOfRows);
+		header.putInt(columnNames.length);
+		header.putLong(firstRowNumber);
+		header.putLong(headerSize);
+		putString(header, rowNamePrefix);
+		for (String columnName : columnNames){
+			putString(header, columnName);
+		}
+		header.clear();
+		return (header);
+	}
+
+	public int getDataOffset(){
+		/*
+		 * @return Number of bytes before the first row, including padding
+		 */
+		int size = FIXED_SIZE;
+		size += 4 + rowNamePrefix.getBytes(StandardCharsets.UTF_8).length;
+		for (String columnName : columnNames){
+			size += 4 + columnName.getBytes(StandardCharsets.UTF_8).length;
+		}
+		return ((size + 7) & ~7);
+	}
+
+	public int getRowSize(){
+		/*
+		 * @return Number of bytes of one row
+		 */
+		if(matrixType == GENOTYPES){
+			return ((columnNames.length + 3) / 4);
+		}
+		return (columnNames.length * 4);
+	}
+
+	public byte getMatrixType(){
+		return (matrixType);
+	}
+	public long getNumberOfRows(){
+		return (numberOfRows);
+	}
+	public int getNumberOfColumns(){
+		return (columnNames.length);
+	}
+	public long getFirstRowNumber(){
+		return (firstRowNumber);
+	}
+	public String getRowNamePrefix(){
+		return (rowNamePrefix);
+	}
+	public String[] getColumnNames(){
+		return (columnNames.clone());
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException{
+		while(buffer.hasRemaining()){
+			if(channel.read(buffer, position + buffer.position()) < 0){
+				throw new IOException("Unexpected end of binary matrix header");
+			}
+		}
+		buffer.flip();
+	}
+
+	private static void putString(ByteBuffer header, String value){
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		header.putInt(bytes.length);
+		header.put(bytes);
+	}
+
+	private static String getString(ByteBuffer names){
+		byte[] bytes = new byte[names.getInt()];
+		names.get(bytes);
+		return (new String(bytes, StandardCharsets.UTF_8));
+	}
+}
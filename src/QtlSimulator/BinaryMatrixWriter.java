@@ -0,0 +1,128 @@
+package QtlSimulator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class BinaryMatrixWriter implements MatrixWriter {
+	private final ByteBufferOutput output;
+	private ByteBuffer buffer;
+	private final byte matrixType;
+	private final int numberOfColumns;
+	private final long numberOfRows;
+	private long rowsWritten;
+	public BinaryMatrixWriter(File file, BinaryMatrixHeader header) throws IOException{
+		/*
+		 * Writes a binary matrix to a file from the calling thread
+		 */
+		this(new ChannelOutput(new FileOutputStream(file).getChannel(), TsvMatrixWriter.BUFFER_SIZE), header);
+	}
+
+	public BinaryMatrixWriter(ByteBufferOutput output, BinaryMatrixHeader header) throws IOException{
+		this(output, header, 0);
+	}
+
+	public BinaryMatrixWriter(ByteBufferOutput output, BinaryMatrixHeader header, long rowsWritten) throws IOException{
+		/*
+		 * Writes a matrix in the binary format described in BinaryMatrixHeader. The header is written directly, so the 
+		 * number of rows has to be known beforehand
+		 *
+		 * @param output Output that takes the filled buffers, e.g. a file channel or a BackgroundWriter
+		 *
+		 * @param header Header with the matrix type, dimensions and names
+		 *
+		 * @param rowsWritten Number of rows already in the output, to append to a file that has the header and these rows.
+		 * The header is only written when this is 0
+		 */
+		this.matrixType = header.getMatrixType();
+		this.numberOfColumns = header.getNumberOfColumns();
+		this.numberOfRows = header.getNumberOfRows();
+		this.output = output;
+		this.rowsWritten = rowsWritten;
+		this.buffer = output.getBuffer().order(ByteOrder.LITTLE_ENDIAN);
+		if(rowsWritten == 0){
+			writeHeader(header.toBytes());
+		}
+	}
+
+	private void writeHeader(ByteBuffer header) throws IOException{
+		while(header.hasRemaining()){
+			if(!buffer.hasRemaining()){
+				flushBuffer();
+			}
+			int length = Math.min(header.remaining(), buffer.remaining());
+			buffer.put(header.array(), header.position(), length);
+			header.position(header.position() + length);
+		}
+	}
+
+	public void writeRow(String rowName, double[] values) throws IOException{
+		/*
+		 * Write the values as float32. The row name is not written, it follows from the row number
+		 */
+		if(matrixType != BinaryMatrixHeader.FLOAT32){
+			throw new IllegalStateException("Can not write expression values to a genotype matrix");
+		}
+		checkRow(values.length);
+		for (double value : values){
+			if(buffer.remaining() < 4){
+				flushBuffer();
+			}
+			buffer.putFloat((float) value);
+		}
+	}
+
+	public void writeRow(String rowName, byte[] values) throws IOException{
+		/*
+		 * Write genotypes (0, 1 or 2) with 2 bits per sample
+		 */
+		if(matrixType != BinaryMatrixHeader.GENOTYPES){
+			throw new IllegalStateException("Can not write genotypes to a float32 matrix");
+		}
+		checkRow(values.length);
+		for (int s = 0; s < values.length; s += 4){
+			int packed = 0;
+			for (int i = 0; i < 4 && s + i < values.length; i++){
+				packed |= (values[s + i] & 3) << (2 * i);
+			}
+			if(!buffer.hasRemaining()){
+				flushBuffer();
+			}
+			buffer.put((byte) packed);
+		}
+	}
+
+	private void checkRow(int numberOfValues){
+		if(numberOfValues != numberOfColumns){
+			throw new IllegalArgumentException("Row has "+Integer.toString(numberOfValues)+" values, matrix has "+Integer.toString(numberOfColumns)+" columns");
+		}
+		if(rowsWritten == numberOfRows){
+			throw new IllegalStateException("All "+Long.toString(numberOfRows)+" rows of the matrix are already written");
+		}
+		rowsWritten++;
+	}
+
+	public void flush() throws IOException{
+		flushBuffer();
+	}
+
+	public void close() throws IOException{
+		try {
+			output.write(buffer);
+		}
+		finally{
+			buffer = null;
+			output.close();
+		}
+		if(rowsWritten != numberOfRows){
+			throw new IllegalStateException("Binary matrix header says "+Long.toString(numberOfRows)+" rows, but "+Long.toString(rowsWritten)+" were written");
+		}
+	}
+
+	private void flushBuffer() throws IOException{
+		output.write(buffer);
+		buffer = output.getBuffer().order(ByteOrder.LITTLE_ENDIAN);
+	}
+}
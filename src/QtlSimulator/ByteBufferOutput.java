@@ -0,0 +1,14 @@
+package QtlSimulator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public interface ByteBufferOutput {
+	/*
+	 * Destination of the byte buffers filled by the matrix writers. A writer fills the buffer it got from getBuffer(),
+	 * hands it over with write() and continues with a new buffer from getBuffer()
+	 */
+	ByteBuffer getBuffer() throws IOException;
+	void write(ByteBuffer filledBuffer) throws IOException;
+	void close() throws IOException;
+}
@@ -0,0 +1,68 @@
+package QtlSimulator;
+
+public class CellcountMatrix {
+	private final double[][] cellcounts;
+	private final double[][] scaledCellcounts;
+	private final double[] minCellcount;
+	private final double[] maxCellcount;
+	private final double[] scaleFactor;
+	public CellcountMatrix(double[][] cellcounts, double limitMin, double limitMax){
+		/*
+		 * Cellcounts of all samples with per celltype min, max and the cellcounts scaled between limitMin and limitMax.
+		 * The scaled values are computed once here so that the simulation only has to do array lookups.
+		 *
+		 * @param cellcounts Cellcount per celltype per sample, indexed as [celltype][sample]
+		 *
+		 * @param limitMin Lower limit to scale the cellcounts to
+		 *
+		 * @param limitMax Upper limit to scale the cellcounts to
+		 */
+		int numberOfCelltypes = cellcounts.length;
+		this.cellcounts = cellcounts;
+		this.scaledCellcounts = new double[numberOfCelltypes][];
+		this.minCellcount = new double[numberOfCelltypes];
+		this.maxCellcount = new double[numberOfCelltypes];
+		this.scaleFactor = new double[numberOfCelltypes];
+		for (int c = 0; c < numberOfCelltypes; c++){
+			double[] cellcountsOfCelltype = cellcounts[c];
+			double min = cellcountsOfCelltype[0];
+			double max = cellcountsOfCelltype[0];
+			for (double cellcount : cellcountsOfCelltype){
+				min = Math.min(min, cellcount);
+				max = Math.max(max, cellcount);
+			}
+			minCellcount[c] = min;
+			maxCellcount[c] = max;
+			// same as QtlSimulator.scale(), with the division done once per celltype
+			scaleFactor[c] = (limitMax - limitMin) / (max - min);
+			scaledCellcounts[c] = new double[cellcountsOfCelltype.length];
+			for (int s = 0; s < cellcountsOfCelltype.length; s++){
+				scaledCellcounts[c][s] = scaleFactor[c] * (cellcountsOfCelltype[s] - min) + limitMin;
+			}
+		}
+	}
+	public int getNumberOfCelltypes(){
+		return (cellcounts.length);
+	}
+	public int getNumberOfSamples(){
+		return (cellcounts[0].length);
+	}
+	public double getCellcount(int celltype, int sample){
+		return (cellcounts[celltype][sample]);
+	}
+	public double getScaledCellcount(int celltype, int sample){
+		return (scaledCellcounts[celltype][sample]);
+	}
+	public double[] getScaledCellcounts(int celltype){
+		return (scaledCellcounts[celltype]);
+	}
+	public double getMinCellcount(int celltype){
+		return (minCellcount[celltype]);
+	}
+	public double getMaxCellcount(int celltype){
+		return (maxCellcount[celltype]);
+	}
+	public double getScaleFactor(int celltype){
+		return (scaleFactor[celltype]);
+	}
+}
@@ -0,0 +1,122 @@
+package QtlSimulator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+public final class CellcountSimulator {
+	// number of consecutive samples that get their cellcounts from one random stream
+	public static final int CHUNK_SIZE = 1 << 16;
+	private CellcountSimulator(){
+	}
+
+	public static CellcountMatrix simulate(final SimulationConfig config){
+		/*
+		 * Simulate the cellcount % of every sample. The samples are split in chunks of CHUNK_SIZE samples and every chunk
+		 * has its own random stream (chunk 0 has stream -1, chunk 1 stream -2, ...), so the chunks can be simulated in
+		 * parallel and the cellcounts are the same for any number of threads. Sample sizes up to CHUNK_SIZE give the
+		 * same cellcounts as simulating all samples from stream -1.
+		 *
+		 * Models:
+		 *   normal     every celltype from N(cellcount, cellcount/10), if < 0 replaced by a random number between 0.01 and 1.01.
+		 *              The % of a sample do not add up to 100
+		 *   dirichlet  the % of a sample are 100 * Dirichlet(concentration * cellcount / 100), so they add up to 100 and have
+		 *              the cellcount percentages as mean. The higher the concentration, the smaller the spread
+		 *
+		 * @param config Settings of the simulation, with the cellcount percentages, model, sample size, seed and threads
+		 *
+		 * @return Cellcounts per celltype per sample, scaled between 0 and 4 for the simulation
+		 */
+		final double[][] cellcounts = new double[config.getNumberOfCelltypes()][config.getSampleSize()];
+		int numberOfChunks = (config.getSampleSize() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		int threads = Math.min(config.getThreads(), numberOfChunks);
+		if(threads == 1){
+			for (int chunk = 0; chunk < numberOfChunks; chunk++){
+				simulateChunk(config, cellcounts, chunk);
+			}
+		}
+		else{
+			ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				public Thread newThread(Runnable runnable){
+					Thread thread = new Thread(runnable, "QtlSimulator-cellcounts");
+					thread.setDaemon(true);
+					return (thread);
+				}
+			});
+			try {
+				List<Future<?>> chunks = new ArrayList<Future<?>>();
+				for (int chunk = 0; chunk < numberOfChunks; chunk++){
+					final int chunkNumber = chunk;
+					chunks.add(executor.submit(new Runnable() {
+						public void run(){
+							simulateChunk(config, cellcounts, chunkNumber);
+						}
+					}));
+				}
+				for (Future<?> chunk : chunks){
+					chunk.get();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while simulating cellcounts", e);
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("Simulating cellcounts failed", e.getCause());
+			}
+			finally{
+				executor.shutdownNow();
+			}
+		}
+		// min and max cellcount of each celltype are used to scale the cellcounts between 0 and 4 during simulation
+		return (new CellcountMatrix(cellcounts, 0, 4));
+	}
+
+	private static void simulateChunk(SimulationConfig config, double[][] cellcounts, int chunk){
+		/*
+		 * @param cellcounts Matrix to fill, indexed as [celltype][sample]
+		 *
+		 * @param chunk Number of the chunk, the chunk has samples chunk * CHUNK_SIZE up to the next chunk
+		 */
+		double[] cellcountPercentages = config.getCellcountPercentages();
+		int firstSample = chunk * CHUNK_SIZE;
+		int endSample = Math.min(config.getSampleSize(), firstSample + CHUNK_SIZE);
+		// cellcounts get their own random streams so that they are the same for every run with the same seed
+		GaussianSampler random = new GaussianSampler(GaussianSampler.streamSeed(config.getSeed(), -1 - chunk));
+		if(config.getCellcountModel().equals("dirichlet")){
+			double[] shapes = new double[cellcountPercentages.length];
+			for (int c = 0; c < shapes.length; c++){
+				shapes[c] = config.getCellcountConcentration() * cellcountPercentages[c] / 100;
+			}
+			double[] draws = new double[shapes.length];
+			for (int s = firstSample; s < endSample; s++){
+				double total;
+				do {
+					total = 0;
+					for (int c = 0; c < shapes.length; c++){
+						draws[c] = random.gamma(shapes[c]);
+						total += draws[c];
+					}
+					// only when all draws underflow with very small shapes
+				} while (total == 0);
+				for (int c = 0; c < shapes.length; c++){
+					cellcounts[c][s] = 100 * draws[c] / total;
+				}
+			}
+			return;
+		}
+		for (int s = firstSample; s < endSample; s++){
+			for (int c = 0; c < cellcountPercentages.length; c++){
+				double cellcount = cellcountPercentages[c];
+				double cellcountOfSample = random.normal(cellcount, cellcount/10);
+				// cellcount can not be < 0, if < 0 make it 0 + small random number between 0.01 and 1.01
+				if (cellcountOfSample < 0){
+					cellcountOfSample = 0 + random.uniform()+0.01;
+				}
+				cellcounts[c][s] = cellcountOfSample;
+			}
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package QtlSimulator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+public class ChannelOutput implements ByteBufferOutput {
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer;
+	public ChannelOutput(WritableByteChannel channel, int bufferSize){
+		/*
+		 * Writes buffers to the channel on the calling thread, reusing one buffer
+		 *
+		 * @param channel Channel to write to
+		 *
+		 * @param bufferSize Size of the buffer in bytes
+		 */
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocate(bufferSize);
+	}
+	public ByteBuffer getBuffer(){
+		return (buffer);
+	}
+	public void write(ByteBuffer filledBuffer) throws IOException{
+		filledBuffer.flip();
+		while(filledBuffer.hasRemaining()){
+			channel.write(filledBuffer);
+		}
+		filledBuffer.clear();
+	}
+	public void close() throws IOException{
+		channel.close();
+	}
+}
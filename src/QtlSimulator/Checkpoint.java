@@ -0,0 +1,179 @@
+package QtlSimulator;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class Checkpoint {
+	/*
+	 * Progress of a run, written to <outfolder>/checkpoint.tsv as tab separated key-value lines:
+	 *
+	 *   lastQtl   <number of the last QTL that is completely in the output files>
+	 *   seed      <master seed>
+	 *   settings  <options that change the output, a resumed run has to use the same>
+	 *   file      <file name> <size in bytes>   (one line per output file)
+	 *   header    <file name> <size of the header in bytes>   (sharded runs, see ShardInfo)
+	 *
+	 * Every QTL has its own random stream derived from the seed and the QTL number, so the seed and the last QTL are the
+	 * complete random state: a resumed run simulates QTL lastQtl+1 onwards exactly like an uninterrupted run would.
+	 */
+	public static final String FILE_NAME = "checkpoint.tsv";
+	private final int lastQtl;
+	private final long seed;
+	private final String settings;
+	private final Map<String, Long> fileSizes = new LinkedHashMap<String, Long>();
+	private final Map<String, Long> headerSizes = new LinkedHashMap<String, Long>();
+	public Checkpoint(int lastQtl, long seed, String settings){
+		/*
+		 * @param lastQtl Number of the last QTL that is completely written
+		 *
+		 * @param seed Master seed of the run
+		 *
+		 * @param settings Options that change the output, see getSettings(CommandLineOptions)
+		 */
+		this.lastQtl = lastQtl;
+		this.seed = seed;
+		this.settings = settings;
+	}
+
+	public static String getSettings(CommandLineOptions commandLineOptions){
+		/*
+		 * @return The options that change the output files, except the seed
+		 */
+		StringBuilder settings = new StringBuilder();
+		settings.append("c=");
+		for (double cellcountPercentage : commandLineOptions.getCellcountPercentages()){
+			settings.append(cellcountPercentage).append(',');
+		}
+		settings.append(" cellcountModel=").append(commandLineOptions.getCellcountModel());
+		if(commandLineOptions.getCellcountModel().equals("dirichlet")){
+			settings.append(" concentration=").append(commandLineOptions.getCellcountConcentration());
+		}
+		settings.append(" n=").append(commandLineOptions.getNumberOfQtls());
+		// the groups themselves, so that an edited spec file is noticed and another path to the same file is not
+		settings.append(" groups=").append(commandLineOptions.getQtlGroups() == null ? "default" : commandLineOptions.getQtlGroups().getDigest());
+		settings.append(" s=").append(commandLineOptions.getSampleSize());
+		settings.append(" e=").append(commandLineOptions.getNoise());
+		settings.append(" precision=").append(commandLineOptions.getPrecision());
+		settings.append(" format=").append(commandLineOptions.getOutputFormat());
+		settings.append(" compress=").append(commandLineOptions.getCompression());
+		settings.append(" shard=").append(commandLineOptions.getShardIndex()).append('/').append(commandLineOptions.getShardCount());
+		return (settings.toString());
+	}
+
+	public void write(File outfolder) throws IOException{
+		/*
+		 * Write the checkpoint to a temporary file and move it over the previous checkpoint, so that there is always
+		 * one complete checkpoint, also when the run is killed while writing it
+		 */
+		StringBuilder checkpoint = new StringBuilder();
+		checkpoint.append("lastQtl\t").append(lastQtl).append('\n');
+		checkpoint.append("seed\t").append(seed).append('\n');
+		checkpoint.append("settings\t").append(settings).append('\n');
+		for (Map.Entry<String, Long> file : fileSizes.entrySet()){
+			checkpoint.append("file\t").append(file.getKey()).append('\t').append(file.getValue()).append('\n');
+		}
+		for (Map.Entry<String, Long> header : headerSizes.entrySet()){
+			checkpoint.append("header\t").append(header.getKey()).append('\t').append(header.getValue()).append('\n');
+		}
+		File temporaryFile = new File(outfolder, FILE_NAME+".tmp");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(temporaryFile), StandardCharsets.UTF_8);
+		try {
+			writer.write(checkpoint.toString());
+		}
+		finally{
+			writer.close();
+		}
+		Files.move(temporaryFile.toPath(), new File(outfolder, FILE_NAME).toPath(), StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	public static Checkpoint read(File outfolder) throws IOException{
+		/*
+		 * @return The checkpoint in the outfolder, or null if there is none
+		 */
+		File checkpointFile = new File(outfolder, FILE_NAME);
+		if(!checkpointFile.exists()){
+			return (null);
+		}
+		Integer lastQtl = null;
+		Long seed = null;
+		String settings = null;
+		Map<String, Long> fileSizes = new LinkedHashMap<String, Long>();
+		Map<String, Long> headerSizes = new LinkedHashMap<String, Long>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(checkpointFile), StandardCharsets.UTF_8));
+		try {
+			String line;
+			while((line = reader.readLine()) != null){
+				String[] fields = line.split("\t");
+				if(fields[0].equals("lastQtl")){
+					lastQtl = Integer.parseInt(fields[1]);
+				}
+				else if(fields[0].equals("seed")){
+					seed = Long.parseLong(fields[1]);
+				}
+				else if(fields[0].equals("settings")){
+					settings = fields[1];
+				}
+				else if(fields[0].equals("file")){
+					fileSizes.put(fields[1], Long.parseLong(fields[2]));
+				}
+				else if(fields[0].equals("header")){
+					headerSizes.put(fields[1], Long.parseLong(fields[2]));
+				}
+			}
+		}
+		finally{
+			reader.close();
+		}
+		if(lastQtl == null || seed == null || settings == null){
+			throw new IOException(checkpointFile.getPath()+" is not a complete checkpoint");
+		}
+		Checkpoint checkpoint = new Checkpoint(lastQtl, seed, settings);
+		checkpoint.fileSizes.putAll(fileSizes);
+		checkpoint.headerSizes.putAll(headerSizes);
+		return (checkpoint);
+	}
+
+	public static void delete(File outfolder) throws IOException{
+		Files.deleteIfExists(new File(outfolder, FILE_NAME).toPath());
+	}
+
+	public int getLastQtl(){
+		return (lastQtl);
+	}
+	public long getSeed(){
+		return (seed);
+	}
+	public String getSettings(){
+		return (settings);
+	}
+	public void setFileSize(String fileName, long fileSize){
+		/*
+		 * @param fileSize Size of the output file after lastQtl, in bytes
+		 */
+		fileSizes.put(fileName, fileSize);
+	}
+	public void setHeaderSize(String fileName, long headerSize){
+		headerSizes.put(fileName, headerSize);
+	}
+	public Map<String, Long> getHeaderSizes(){
+		return (headerSizes);
+	}
+	public long getFileSize(String fileName) throws IOException{
+		Long fileSize = fileSizes.get(fileName);
+		if(fileSize == null){
+			throw new IOException("Checkpoint has no size for "+fileName);
+		}
+		return (fileSize);
+	}
+}
@@ -1,5 +1,9 @@
 package QtlSimulator;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
@@ -10,11 +14,28 @@ import org.apache.commons.cli.ParseException;
 
 public class CommandLineOptions {
 	private double[] cellcountPercentages = {70, 20, 7, 3};
+	private String cellcountModel = "normal";
+	private double cellcountConcentration = 100;
 	private int numberOfQtls = 1000;
 	private String outfolder;
 	private int sampleSize = 100;
 	private int noise = 10;
-	public void parseCommandLine(String[] args) throws ParseException {
+	private int threads = 1;
+	private long seed = new Random().nextLong();
+	private int precision = 6;
+	private String outputFormat = "csv";
+	private String compression = "none";
+	private int shardIndex = 0;
+	private int shardCount = 1;
+	private int progressInterval = 10;
+	private long maxHeapBuffer = 256L << 20;
+	private int checkpointInterval = 60;
+	private boolean resume = false;
+	private boolean seedGiven = false;
+	private String qtlGroupsFile = null;
+	private QtlGroupSpec qtlGroups = null;
+	private boolean dryRun = false;
+	public void parseCommandLine(String[] args) throws ParseException, IOException {
 		/*
 		 * Standard command line parsing.
 		 * 
@@ -28,21 +49,69 @@ public class CommandLineOptions {
 		Option help = new Option("help", "print this message");
 		Option cellcountPercentagesOption = Option.builder("c").required(false).hasArg().longOpt("cellcount_percentages")
 				.desc("The cell type percentages around which a distribution of % will be used").build();
+		Option cellcountModelOption = Option.builder().required(false).hasArg().longOpt("cellcount-model")
+				.desc("Distribution of the cellcount % of a sample: normal (default, every celltype on its own) or dirichlet (% add up to 100)").build();
+		Option cellcountConcentrationOption = Option.builder().required(false).hasArg().longOpt("cellcount-concentration")
+				.desc("Concentration of the dirichlet cellcount model, higher gives % closer to the cellcount percentages (default: 100)").build();
 		Option noiseOption = Option.builder("e").required(false).hasArg().longOpt("error")
 				.desc("The mean of poisson distribution from which error is drawn").build();
-		Option numberOfQtlsOption = Option.builder("n").required(false).hasArg().longOpt("number_of_qtls_per_group")
-				.desc("The number of QTLs to simulate per genotype group").build();
+		Option numberOfQtlsOption = Option.builder("n").required(false).hasArg().longOpt("number_of_qtls")
+				.desc("The total number of QTLs to simulate, divided over the QTL groups by weight (default: 1000)").build();
+		Option numberOfQtlsPerGroupOption = Option.builder().required(false).hasArg().longOpt("number_of_qtls_per_group")
+				.desc("Deprecated, same as --number_of_qtls. It is the total number of QTLs, not the number per group").build();
 		Option outfolderOption = Option.builder("o").required(true).hasArg().longOpt("outfolder")
 				.desc("Outfolder to write results to").build();
 		Option sampleSizeOption = Option.builder("s").required(false).hasArg().longOpt("sample_size")
 				.desc("Number of samples to use").build();
+		Option threadsOption = Option.builder("t").required(false).hasArg().longOpt("threads")
+				.desc("Number of threads to simulate QTLs with. Output is the same for any number of threads").build();
+		Option seedOption = Option.builder().required(false).hasArg().longOpt("seed")
+				.desc("Seed of the random number generator. Runs with the same seed and options give identical output (default: random)").build();
+		Option precisionOption = Option.builder().required(false).hasArg().longOpt("precision")
+				.desc("Number of decimals to write simulated values with (0-15, default: 6)").build();
+		Option formatOption = Option.builder().required(false).hasArg().longOpt("format")
+				.desc("Format of the expression and genotype files: csv (default) or binary (2-bit packed genotypes, float32 expression)").build();
+		Option compressOption = Option.builder().required(false).hasArg().longOpt("compress")
+				.desc("Compress the expression, genotype and info files: none (default), gzip or zstd. Only for csv format").build();
+		Option shardIndexOption = Option.builder().required(false).hasArg().longOpt("shard-index")
+				.desc("0-based index of the shard to simulate when the QTLs are split over --shard-count processes").build();
+		Option shardCountOption = Option.builder().required(false).hasArg().longOpt("shard-count")
+				.desc("Number of shards the QTLs are split over. All shards need the same --seed, merge them with `merge -o <outfolder> <shard outfolders>`").build();
+		Option progressIntervalOption = Option.builder().required(false).hasArg().longOpt("progress-interval")
+				.desc("Seconds between progress reports, 0 for no progress reports (default: 10)").build();
+		Option maxHeapBufferOption = Option.builder().required(false).hasArg().longOpt("max-heap-buffer")
+				.desc("MB of heap for QTLs simulated ahead and output buffers waiting to be written. When it is used up simulation waits for the writer (default: 256)").build();
+		Option checkpointIntervalOption = Option.builder().required(false).hasArg().longOpt("checkpoint-interval")
+				.desc("Seconds between checkpoints that --resume continues from, 0 for no checkpoints (default: 60)").build();
+		Option qtlGroupsOption = Option.builder().required(false).hasArg().longOpt("qtl-groups")
+				.desc("Tab separated file with the genotype coefficient, interaction coefficient and MAF of each QTL group, and optional weight and replicates columns (default: 30 x 30 x 11 grid)").build();
+		Option dryRunOption = Option.builder().required(false).longOpt("dry-run")
+				.desc("Only print the number of QTLs, the output size per format and the estimated runtime from a short calibration, without writing files").build();
+		Option resumeOption = Option.builder().required(false).longOpt("resume")
+				.desc("Continue an interrupted run from the checkpoint in the outfolder. Needs the same options as the interrupted run").build();
 		
 		options.addOption(noiseOption);
 		options.addOption(help);
 		options.addOption(cellcountPercentagesOption);
+		options.addOption(cellcountModelOption);
+		options.addOption(cellcountConcentrationOption);
 		options.addOption(numberOfQtlsOption);
+		options.addOption(numberOfQtlsPerGroupOption);
 		options.addOption(outfolderOption);
 		options.addOption(sampleSizeOption);
+		options.addOption(threadsOption);
+		options.addOption(seedOption);
+		options.addOption(precisionOption);
+		options.addOption(formatOption);
+		options.addOption(compressOption);
+		options.addOption(shardIndexOption);
+		options.addOption(shardCountOption);
+		options.addOption(progressIntervalOption);
+		options.addOption(maxHeapBufferOption);
+		options.addOption(checkpointIntervalOption);
+		options.addOption(resumeOption);
+		options.addOption(qtlGroupsOption);
+		options.addOption(dryRunOption);
 		
 		CommandLineParser cmdLineParser = new DefaultParser();
 		CommandLine cmdLine = cmdLineParser.parse(options, args);
@@ -55,7 +124,7 @@ public class CommandLineOptions {
 		printArgumentValues(cmdLine);
 	}
 	
-	private void parseOptions(CommandLine cmdLine){
+	private void parseOptions(CommandLine cmdLine) throws IOException{
 		if(cmdLine.hasOption("cellcount_percentages")){
 			String[] items = cmdLine.getOptionValue("cellcount_percentages").split(",");
 			cellcountPercentages = new double[items.length];
@@ -68,16 +137,103 @@ public class CommandLineOptions {
 				throw new IllegalArgumentException("Cellcount % have to add up to 100%, added up to: "+Double.toString(total));
 			}
 		}
+		if(cmdLine.hasOption("cellcount-model")){
+			cellcountModel = cmdLine.getOptionValue("cellcount-model");
+			if(!cellcountModel.equals("normal") && !cellcountModel.equals("dirichlet")){
+				throw new IllegalArgumentException("Cellcount model has to be normal or dirichlet, was: "+cellcountModel);
+			}
+			if(cellcountModel.equals("dirichlet") && cellcountPercentages.length < 2){
+				throw new IllegalArgumentException("The dirichlet cellcount model needs at least 2 celltypes, was: "+Integer.toString(cellcountPercentages.length));
+			}
+		}
+		if(cmdLine.hasOption("cellcount-concentration")){
+			cellcountConcentration = Double.parseDouble(cmdLine.getOptionValue("cellcount-concentration"));
+			if(!(cellcountConcentration > 0) || Double.isInfinite(cellcountConcentration)){
+				throw new IllegalArgumentException("Cellcount concentration has to be a number > 0, was: "+Double.toString(cellcountConcentration));
+			}
+		}
 		if(cmdLine.hasOption("noise")){
 			noise = Integer.parseInt(cmdLine.getOptionValue("noise"));
 		}
-		if(cmdLine.hasOption("number_of_qtls_per_group")){
+		if(cmdLine.hasOption("number_of_qtls")){
+			numberOfQtls = Integer.parseInt(cmdLine.getOptionValue("number_of_qtls"));
+		}
+		else if(cmdLine.hasOption("number_of_qtls_per_group")){
+			System.out.println("--number_of_qtls_per_group is deprecated, it is the total number of QTLs. Use -n or --number_of_qtls");
 			numberOfQtls = Integer.parseInt(cmdLine.getOptionValue("number_of_qtls_per_group"));
 		}
 		outfolder = cmdLine.getOptionValue("outfolder");
 		if(cmdLine.hasOption("sample_size")){
 			sampleSize = Integer.parseInt(cmdLine.getOptionValue("sample_size"));
 		}
+		if(cmdLine.hasOption("threads")){
+			threads = Integer.parseInt(cmdLine.getOptionValue("threads"));
+			if(threads < 1){
+				throw new IllegalArgumentException("Number of threads has to be at least 1, was: "+Integer.toString(threads));
+			}
+		}
+		if(cmdLine.hasOption("seed")){
+			seed = Long.parseLong(cmdLine.getOptionValue("seed"));
+			seedGiven = true;
+		}
+		if(cmdLine.hasOption("precision")){
+			precision = Integer.parseInt(cmdLine.getOptionValue("precision"));
+			if(precision < 0 || precision > 15){
+				throw new IllegalArgumentException("Precision has to be between 0 and 15, was: "+Integer.toString(precision));
+			}
+		}
+		if(cmdLine.hasOption("format")){
+			outputFormat = cmdLine.getOptionValue("format");
+			if(!outputFormat.equals("csv") && !outputFormat.equals("binary")){
+				throw new IllegalArgumentException("Format has to be csv or binary, was: "+outputFormat);
+			}
+		}
+		if(cmdLine.hasOption("compress")){
+			compression = cmdLine.getOptionValue("compress");
+			if(!compression.equals("none") && !compression.equals("gzip") && !compression.equals("zstd")){
+				throw new IllegalArgumentException("Compression has to be none, gzip or zstd, was: "+compression);
+			}
+			if(!compression.equals("none") && outputFormat.equals("binary")){
+				throw new IllegalArgumentException("Binary output is memory mapped by SimulatedDatasetReader and can not be compressed");
+			}
+		}
+		if(cmdLine.hasOption("shard-count")){
+			shardCount = Integer.parseInt(cmdLine.getOptionValue("shard-count"));
+			if(shardCount > 1 && !cmdLine.hasOption("seed")){
+				throw new IllegalArgumentException("Shards need a --seed so that all shards simulate the same cellcounts and QTLs");
+			}
+		}
+		if(cmdLine.hasOption("shard-index")){
+			shardIndex = Integer.parseInt(cmdLine.getOptionValue("shard-index"));
+		}
+		if(cmdLine.hasOption("progress-interval")){
+			progressInterval = Integer.parseInt(cmdLine.getOptionValue("progress-interval"));
+			if(progressInterval < 0){
+				throw new IllegalArgumentException("Progress interval can not be negative, was: "+Integer.toString(progressInterval));
+			}
+		}
+		if(cmdLine.hasOption("max-heap-buffer")){
+			int maxHeapBufferMb = Integer.parseInt(cmdLine.getOptionValue("max-heap-buffer"));
+			if(maxHeapBufferMb < 1){
+				throw new IllegalArgumentException("Max heap buffer has to be at least 1 MB, was: "+Integer.toString(maxHeapBufferMb));
+			}
+			maxHeapBuffer = (long) maxHeapBufferMb << 20;
+		}
+		if(cmdLine.hasOption("checkpoint-interval")){
+			checkpointInterval = Integer.parseInt(cmdLine.getOptionValue("checkpoint-interval"));
+			if(checkpointInterval < 0){
+				throw new IllegalArgumentException("Checkpoint interval can not be negative, was: "+Integer.toString(checkpointInterval));
+			}
+		}
+		resume = cmdLine.hasOption("resume");
+		if(cmdLine.hasOption("qtl-groups")){
+			qtlGroupsFile = cmdLine.getOptionValue("qtl-groups");
+			qtlGroups = QtlGroupSpec.read(new File(qtlGroupsFile));
+		}
+		dryRun = cmdLine.hasOption("dry-run");
+		if(shardCount < 1 || shardIndex < 0 || shardIndex >= shardCount){
+			throw new IllegalArgumentException("Shard index has to be between 0 and shard count - 1, was: "+Integer.toString(shardIndex)+" of "+Integer.toString(shardCount));
+		}
 	}
 	
 
@@ -88,15 +244,47 @@ public class CommandLineOptions {
 			System.out.printf("%s, ", cellcount);
 		}
 		System.out.println();
+		System.out.printf("Cellcount model: (--cellcount-model): %s\n", cellcountModel);
+		System.out.printf("Cellcount concentration: (--cellcount-concentration): %s\n", cellcountConcentration);
 		System.out.printf("Number of QTLs to write (-n): %s\n", numberOfQtls);
 		System.out.printf("Outfolder: (-o): %s\n", outfolder);
 		System.out.printf("Samplesize: (-s): %s\n", sampleSize);
 		System.out.printf("Noise: (-e): %s\n", noise);
+		System.out.printf("Threads: (-t): %s\n", threads);
+		System.out.printf("Seed: (--seed): %s\n", seed);
+		System.out.printf("Precision: (--precision): %s\n", precision);
+		System.out.printf("Format: (--format): %s\n", outputFormat);
+		System.out.printf("Compression: (--compress): %s\n", compression);
+		System.out.printf("Shard: (--shard-index/--shard-count): %s/%s\n", shardIndex, shardCount);
+		System.out.printf("Progress interval: (--progress-interval): %s\n", progressInterval);
+		System.out.printf("Max heap buffer: (--max-heap-buffer): %s MB\n", maxHeapBuffer >> 20);
+		System.out.printf("Checkpoint interval: (--checkpoint-interval): %s\n", checkpointInterval);
+		System.out.printf("Resume: (--resume): %s\n", resume);
+		System.out.printf("QTL groups: (--qtl-groups): %s\n", qtlGroupsFile == null ? "default grid" : qtlGroupsFile);
+		System.out.printf("Dry run: (--dry-run): %s\n", dryRun);
 		System.out.println("=================================================");
 	}
+	public SimulationConfig getSimulationConfig(){
+		/*
+		 * @return The settings of the simulation itself, without the output options
+		 */
+		SimulationConfig.Builder builder = SimulationConfig.builder().cellcountPercentages(cellcountPercentages)
+				.cellcountModel(cellcountModel).cellcountConcentration(cellcountConcentration).sampleSize(sampleSize)
+				.numberOfQtls(numberOfQtls).noise(noise).seed(seed).threads(threads).rowBufferBytes(maxHeapBuffer / 4 * 3);
+		if(qtlGroups != null){
+			builder.qtlGroups(qtlGroups);
+		}
+		return (builder.build());
+	}
 	public double[] getCellcountPercentages(){
 		return (cellcountPercentages);
 	}
+	public String getCellcountModel(){
+		return (cellcountModel);
+	}
+	public double getCellcountConcentration(){
+		return (cellcountConcentration);
+	}
 	public int getNumberOfQtls(){
 		return (numberOfQtls);
 	}
@@ -109,4 +297,64 @@ public class CommandLineOptions {
 	public int getNoise(){
 		return (noise);
 	}
+	public int getThreads(){
+		return (threads);
+	}
+	public long getSeed(){
+		return (seed);
+	}
+	public void setSeed(long seed){
+		/*
+		 * A resumed run continues with the seed of its checkpoint
+		 */
+		this.seed = seed;
+	}
+	public boolean isSeedGiven(){
+		return (seedGiven);
+	}
+	public int getPrecision(){
+		return (precision);
+	}
+	public String getOutputFormat(){
+		return (outputFormat);
+	}
+	public String getCompression(){
+		return (compression);
+	}
+	public int getShardIndex(){
+		return (shardIndex);
+	}
+	public int getShardCount(){
+		return (shardCount);
+	}
+	public int getProgressInterval(){
+		return (progressInterval);
+	}
+	public long getMaxHeapBuffer(){
+		/*
+		 * @return Heap budget in bytes, 3/4 for QTLs simulated ahead and 1/4 for output buffers
+		 */
+		return (maxHeapBuffer);
+	}
+	public int getCheckpointInterval(){
+		return (checkpointInterval);
+	}
+	public boolean isResume(){
+		return (resume);
+	}
+	public String getQtlGroupsFile(){
+		/*
+		 * @return Path of the QTL group spec, or null for the default grid
+		 */
+		return (qtlGroupsFile);
+	}
+	public QtlGroupSpec getQtlGroups(){
+		/*
+		 * @return The QTL groups of --qtl-groups, or null for the default grid
+		 */
+		return (qtlGroups);
+	}
+	public boolean isDryRun(){
+		return (dryRun);
+	}
 }
@@ -0,0 +1,322 @@
+package QtlSimulator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+import io.airlift.compress.zstd.ZstdOutputStream;
+
+public class DryRun {
+	// the calibration simulates and formats QTLs for about this long, after a shorter warm up of the JIT
+	private static final long WARM_UP_NANOS = 500000000L;
+	private static final long CALIBRATION_NANOS = 2000000000L;
+	private static final int MAX_CALIBRATION_QTLS = 1000;
+	// csv bytes per file that are kept to measure the compression on
+	private static final int COMPRESSION_SAMPLE_BYTES = 4 << 20;
+	private final CommandLineOptions commandLineOptions;
+	private final Simulator simulator;
+	private final int firstQtl;
+	private final int lastQtl;
+	private OutputSet csvOutputs;
+	private OutputSet binaryOutputs;
+	private CountingStream cellcountCounter;
+	private long samplingNanos = 0;
+	private int calibrationQtls = 0;
+	public DryRun(CommandLineOptions commandLineOptions){
+		/*
+		 * Estimates the size and runtime of a run without writing files, to size cluster jobs. The number of QTLs is exact.
+		 * A sample of QTLs spread over all groups is simulated on one thread and written as csv and binary to outputs that
+		 * only count the bytes, which gives the sampling and formatting time per QTL and the bytes per QTL of each format.
+		 * Compression is measured on a sample of the csv bytes. The cellcount file is written in full, so its size is exact
+		 *
+		 * @param commandLineOptions Options of the run to estimate
+		 */
+		this.commandLineOptions = commandLineOptions;
+		this.simulator = new Simulator(commandLineOptions.getSimulationConfig());
+		this.firstQtl = QtlSimulator.getFirstQtlOfShard(simulator.getNumberOfQtls(), commandLineOptions.getShardIndex(), commandLineOptions.getShardCount());
+		this.lastQtl = QtlSimulator.getFirstQtlOfShard(simulator.getNumberOfQtls(), commandLineOptions.getShardIndex() + 1, commandLineOptions.getShardCount()) - 1;
+	}
+
+	public void run() throws IOException{
+		long numberOfQtls = lastQtl - firstQtl + 1;
+		System.out.println("=================== Dry run ===================");
+		System.out.printf("QTLs: %d (QTL_%d - QTL_%d of %d), %d groups\n", numberOfQtls, firstQtl, lastQtl, simulator.getNumberOfQtls(),
+				simulator.getConfig().getQtlGroups().getNumberOfGroups());
+		if(numberOfQtls <= 0){
+			return;
+		}
+		cellcountCounter = countCellcountFile();
+		csvOutputs = new OutputSet("csv");
+		binaryOutputs = new OutputSet("binary");
+		calibrate(numberOfQtls);
+		csvOutputs.finish();
+		binaryOutputs.finish();
+		double samplingSecondsPerQtl = samplingNanos / 1e9 / calibrationQtls;
+		System.out.printf(Locale.ROOT, "Calibrated on %d QTLs: sampling %.3f ms per QTL per thread\n", calibrationQtls, samplingSecondsPerQtl * 1e3);
+		double csvBytes = csvOutputs.getEstimatedBytes(numberOfQtls);
+		double csvSeconds = getSecondsPerQtl(samplingSecondsPerQtl, csvOutputs.getFormattingSecondsPerQtl(), 0) * numberOfQtls;
+		printEstimate("csv", "none", csvBytes + cellcountCounter.bytesWritten, "estimated", csvSeconds);
+		for (String compression : new String[]{"gzip", "zstd"}){
+			double[] compressionCalibration = calibrateCompression(compression);
+			double compressionSecondsPerQtl = compressionCalibration[1] * csvBytes / numberOfQtls;
+			double seconds = getSecondsPerQtl(samplingSecondsPerQtl, csvOutputs.getFormattingSecondsPerQtl(), compressionSecondsPerQtl) * numberOfQtls;
+			printEstimate("csv", compression, csvBytes * compressionCalibration[0] + getCompressedCellcountBytes(compression), "estimated", seconds);
+		}
+		// the cellcount file is always csv
+		double binarySeconds = getSecondsPerQtl(samplingSecondsPerQtl, binaryOutputs.getFormattingSecondsPerQtl(), 0) * numberOfQtls;
+		printEstimate("binary", "none", binaryOutputs.getEstimatedBytes(numberOfQtls) + cellcountCounter.bytesWritten,
+				"exact, info.csv estimated", binarySeconds);
+		System.out.println("=================================================");
+	}
+
+	private double getSecondsPerQtl(double samplingSecondsPerQtl, double formattingSecondsPerQtl, double compressionSecondsPerQtl){
+		/*
+		 * Simulation threads, formatting on the main thread and compressing on the writer thread run at the same time,
+		 * the slowest of them sets the pace, unless there are not enough cores for all of them. With one thread the main
+		 * thread simulates as well. Disk speed is not included
+		 */
+		int threads = commandLineOptions.getThreads();
+		int cores = Runtime.getRuntime().availableProcessors();
+		double secondsPerQtl;
+		if(threads == 1){
+			secondsPerQtl = samplingSecondsPerQtl + formattingSecondsPerQtl;
+		}
+		else{
+			secondsPerQtl = Math.max(samplingSecondsPerQtl / Math.min(threads, cores), formattingSecondsPerQtl);
+		}
+		secondsPerQtl = Math.max(secondsPerQtl, compressionSecondsPerQtl);
+		return (Math.max(secondsPerQtl, (samplingSecondsPerQtl + formattingSecondsPerQtl + compressionSecondsPerQtl) / cores));
+	}
+
+	private void printEstimate(String format, String compression, double bytes, String exactness, double seconds){
+		System.out.printf(Locale.ROOT, "--format %s --compress %s: %.1f MB (%s), about %.1f s with %d threads on %d cores\n", format,
+				compression, bytes / 1e6, exactness, seconds, commandLineOptions.getThreads(), Runtime.getRuntime().availableProcessors());
+	}
+
+	private CountingStream countCellcountFile() throws IOException{
+		/*
+		 * Write the cellcounts of the run the way QtlSimulator does, every shard writes all of them
+		 *
+		 * @return Counter with the size of simulatedCellcounts.csv and a sample of its bytes to compress
+		 */
+		CountingStream counter = new CountingStream(COMPRESSION_SAMPLE_BYTES);
+		TsvMatrixWriter cellcountWriter = new TsvMatrixWriter(new ChannelOutput(Channels.newChannel(counter), TsvMatrixWriter.BUFFER_SIZE),
+				commandLineOptions.getPrecision());
+		QtlSimulator.writeCellcounts(simulator.getCellcountMatrix(), cellcountWriter);
+		cellcountWriter.flush();
+		return (counter);
+	}
+
+	private double getCompressedCellcountBytes(String compression) throws IOException{
+		/*
+		 * @return Compressed size of simulatedCellcounts.csv, exact when the whole file fits in the sample
+		 */
+		byte[] sample = cellcountCounter.sample.toByteArray();
+		long compressedBytes = compress(sample, compression);
+		if(sample.length == cellcountCounter.bytesWritten){
+			return (compressedBytes);
+		}
+		return ((double) compressedBytes / sample.length * cellcountCounter.bytesWritten);
+	}
+
+	private void calibrate(long numberOfQtls) throws IOException{
+		/*
+		 * Simulate and write QTLs until the calibration time is used up. The QTLs are spread over the whole range with
+		 * the golden ratio, so that also a short calibration sees every part of the groups
+		 */
+		long warmUpEnd = System.nanoTime() + WARM_UP_NANOS;
+		long calibrationEnd = Long.MAX_VALUE;
+		int maxQtls = (int) Math.min(numberOfQtls, MAX_CALIBRATION_QTLS);
+		SimulatedQtl row = null;
+		for (long i = 0; calibrationQtls < maxQtls; i++){
+			int qtlNumber = firstQtl + (int) ((i * 0.6180339887498949) % 1 * numberOfQtls);
+			long start = System.nanoTime();
+			row = simulator.simulate(qtlNumber, row);
+			long sampled = System.nanoTime();
+			csvOutputs.write(row);
+			binaryOutputs.write(row);
+			if(calibrationEnd == Long.MAX_VALUE){
+				if(sampled > warmUpEnd || i >= maxQtls){
+					// rows written during the warm up are not counted
+					csvOutputs.startCounting();
+					binaryOutputs.startCounting();
+					calibrationEnd = System.nanoTime() + CALIBRATION_NANOS;
+				}
+				continue;
+			}
+			samplingNanos += sampled - start;
+			calibrationQtls++;
+			if(System.nanoTime() > calibrationEnd && calibrationQtls >= 3){
+				break;
+			}
+		}
+	}
+
+	private double[] calibrateCompression(String compression) throws IOException{
+		/*
+		 * Compress the csv sample of every file the way the background writer does, once to warm up and then for about a second
+		 *
+		 * @return Compressed size relative to the csv and the seconds to compress one csv byte
+		 */
+		long sampleBytes = 0;
+		long compressedBytes = 0;
+		long nanos = 0;
+		for (int pass = 0; pass <= 1 || nanos < CALIBRATION_NANOS / 2; pass++){
+			long start = System.nanoTime();
+			long passSampleBytes = 0;
+			long passCompressedBytes = 0;
+			for (CountingStream counter : csvOutputs.counters){
+				byte[] sample = counter.sample.toByteArray();
+				passSampleBytes += sample.length;
+				passCompressedBytes += compress(sample, compression);
+			}
+			// the first pass warms up the compressor
+			if(pass > 0){
+				nanos += System.nanoTime() - start;
+				sampleBytes += passSampleBytes;
+				compressedBytes += passCompressedBytes;
+			}
+		}
+		return (new double[]{(double) compressedBytes / sampleBytes, nanos / 1e9 / sampleBytes});
+	}
+
+	private static long compress(byte[] sample, String compression) throws IOException{
+		/*
+		 * @return Size of the sample after compressing it the way the background writer does
+		 */
+		CountingStream compressedCounter = new CountingStream(0);
+		OutputStream compressor;
+		if(compression.equals("gzip")){
+			compressor = new GZIPOutputStream(compressedCounter, TsvMatrixWriter.BUFFER_SIZE);
+		}
+		else{
+			compressor = new ZstdOutputStream(compressedCounter);
+		}
+		// in buffers of the size the matrix writers hand over
+		for (int offset = 0; offset < sample.length; offset += TsvMatrixWriter.BUFFER_SIZE){
+			compressor.write(sample, offset, Math.min(TsvMatrixWriter.BUFFER_SIZE, sample.length - offset));
+		}
+		compressor.close();
+		return (compressedCounter.bytesWritten);
+	}
+
+	private class OutputSet {
+		/*
+		 * The expression, genotype, info and per celltype expression files of one format, written to outputs that
+		 * count the bytes
+		 */
+		private final String format;
+		private final CountingStream[] counters;
+		private final MatrixWriter expressionWriter;
+		private final MatrixWriter genotypeWriter;
+		private final TsvMatrixWriter infoWriter;
+		private final MatrixWriter[] expressionPerCelltypeWriters;
+		private boolean counting = false;
+		private long headerBytes = 0;
+		private long countingStartBytes = 0;
+		private long rowBytes = 0;
+		private long formattingNanos = 0;
+		private OutputSet(String format) throws IOException{
+			this.format = format;
+			int numberOfCelltypes = commandLineOptions.getCellcountPercentages().length;
+			counters = new CountingStream[numberOfCelltypes + 3];
+			String[] sampleNames = QtlSimulator.getSampleNames(commandLineOptions.getSampleSize());
+			expressionWriter = openMatrixWriter(0, BinaryMatrixHeader.FLOAT32, sampleNames);
+			genotypeWriter = openMatrixWriter(1, BinaryMatrixHeader.GENOTYPES, sampleNames);
+			// the info file is always csv
+			infoWriter = new TsvMatrixWriter(openOutput(2), commandLineOptions.getPrecision());
+			QtlSimulator.writeInfoHeader(infoWriter, numberOfCelltypes);
+			expressionPerCelltypeWriters = new MatrixWriter[numberOfCelltypes];
+			for (int c = 0; c < numberOfCelltypes; c++){
+				expressionPerCelltypeWriters[c] = openMatrixWriter(c + 3, BinaryMatrixHeader.FLOAT32, sampleNames);
+			}
+			flush();
+			headerBytes = getBytes();
+		}
+
+		private MatrixWriter openMatrixWriter(int output, byte binaryMatrixType, String[] sampleNames) throws IOException{
+			if(format.equals("binary")){
+				// the calibration can write more rows than the run has, the number of rows does not change the header size.
+				// The binary writers are never closed, so the row count is not checked
+				BinaryMatrixHeader header = new BinaryMatrixHeader(binaryMatrixType, Long.MAX_VALUE, firstQtl, "QTL_", sampleNames);
+				return (new BinaryMatrixWriter(openOutput(output), header));
+			}
+			TsvMatrixWriter writer = new TsvMatrixWriter(openOutput(output), commandLineOptions.getPrecision());
+			QtlSimulator.writeSampleHeader(writer, sampleNames);
+			return (writer);
+		}
+
+		private ByteBufferOutput openOutput(int output){
+			counters[output] = new CountingStream(format.equals("csv") ? COMPRESSION_SAMPLE_BYTES : 0);
+			return (new ChannelOutput(Channels.newChannel(counters[output]), TsvMatrixWriter.BUFFER_SIZE));
+		}
+
+		private void write(SimulatedQtl row) throws IOException{
+			long start = System.nanoTime();
+			QtlSimulator.writeRow(row, expressionWriter, genotypeWriter, infoWriter, expressionPerCelltypeWriters);
+			if(counting){
+				formattingNanos += System.nanoTime() - start;
+			}
+		}
+
+		private void startCounting() throws IOException{
+			flush();
+			countingStartBytes = getBytes();
+			counting = true;
+		}
+
+		private void finish() throws IOException{
+			flush();
+			rowBytes = getBytes() - countingStartBytes;
+		}
+
+		private double getEstimatedBytes(long numberOfQtls){
+			return (headerBytes + (double) rowBytes / calibrationQtls * numberOfQtls);
+		}
+
+		private double getFormattingSecondsPerQtl(){
+			return (formattingNanos / 1e9 / calibrationQtls);
+		}
+
+		private void flush() throws IOException{
+			expressionWriter.flush();
+			genotypeWriter.flush();
+			infoWriter.flush();
+			for (MatrixWriter writer : expressionPerCelltypeWriters){
+				writer.flush();
+			}
+		}
+
+		private long getBytes(){
+			long bytes = 0;
+			for (CountingStream counter : counters){
+				bytes += counter.bytesWritten;
+			}
+			return (bytes);
+		}
+	}
+
+	private static class CountingStream extends OutputStream {
+		/*
+		 * Counts the bytes written to it and keeps only the first sampleBytes of them
+		 */
+		private final int sampleBytes;
+		private final ByteArrayOutputStream sample = new ByteArrayOutputStream();
+		private long bytesWritten = 0;
+		private CountingStream(int sampleBytes){
+			this.sampleBytes = sampleBytes;
+		}
+		public void write(int b){
+			write(new byte[]{(byte) b}, 0, 1);
+		}
+		public void write(byte[] b, int offset, int length){
+			bytesWritten += length;
+			if(sample.size() < sampleBytes){
+				sample.write(b, offset, Math.min(length, sampleBytes - sample.size()));
+			}
+		}
+	}
+}
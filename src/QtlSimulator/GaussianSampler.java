@@ -0,0 +1,163 @@
+package QtlSimulator;
+
+public final class GaussianSampler {
+	private long s0;
+	private long s1;
+	private double nextGaussian;
+	private boolean haveNextGaussian;
+	public GaussianSampler(long seed){
+		/*
+		 * Fast random number generator (xoroshiro128++) with normal and uniform sampling. Drawing numbers does not
+		 * allocate any objects, so one sampler can be used for all draws of a QTL.
+		 *
+		 * @param seed Seed of the generator. The same seed always gives the same sequence of numbers
+		 */
+		reseed(seed);
+	}
+
+	public void reseed(long seed){
+		/*
+		 * Reset the generator to the start of the sequence of the given seed. The two state words are
+		 * filled with SplitMix64 so that similar seeds still give unrelated sequences
+		 *
+		 * @param seed Seed of the generator
+		 */
+		s0 = mix(seed + 0x9E3779B97F4A7C15L);
+		s1 = mix(seed + 2*0x9E3779B97F4A7C15L);
+		haveNextGaussian = false;
+	}
+
+	public long nextLong(){
+		long result = Long.rotateLeft(s0 + s1, 17) + s0;
+		long t = s1 ^ s0;
+		s0 = Long.rotateLeft(s0, 49) ^ t ^ (t << 21);
+		s1 = Long.rotateLeft(t, 28);
+		return (result);
+	}
+
+	public double uniform(){
+		/*
+		 * @return Uniformly distributed number in [0, 1)
+		 */
+		return ((nextLong() >>> 11) * 0x1.0p-53);
+	}
+
+	public double gaussian(){
+		/*
+		 * Standard normal sample with the Marsaglia polar method. Every round gives two samples, the second
+		 * is kept for the next call
+		 *
+		 * @return Sample from N(0, 1)
+		 */
+		if(haveNextGaussian){
+			haveNextGaussian = false;
+			return (nextGaussian);
+		}
+		double v1, v2, s;
+		do {
+			v1 = 2 * uniform() - 1;
+			v2 = 2 * uniform() - 1;
+			s = v1 * v1 + v2 * v2;
+		} while (s >= 1 || s == 0);
+		double multiplier = Math.sqrt(-2 * Math.log(s)/s);
+		nextGaussian = v2 * multiplier;
+		haveNextGaussian = true;
+		return (v1 * multiplier);
+	}
+
+	public double normal(double mean, double sd){
+		/*
+		 * @param mean Mean of the normal distribution
+		 *
+		 * @param sd Standard deviation of the normal distribution
+		 *
+		 * @return Sample from N(mean, sd)
+		 */
+		return (mean + sd * gaussian());
+	}
+
+	public void fillNormal(double[] values, double mean, double sd){
+		/*
+		 * Fill an array with samples from N(mean, sd). Gives the same samples as calling normal() for every element,
+		 * but keeps both samples of a polar round in the loop instead of going through the cached spare
+		 *
+		 * @param values Array to fill
+		 *
+		 * @param mean Mean of the normal distribution
+		 *
+		 * @param sd Standard deviation of the normal distribution
+		 */
+		int i = 0;
+		if(haveNextGaussian && values.length > 0){
+			haveNextGaussian = false;
+			values[i++] = mean + sd * nextGaussian;
+		}
+		for (; i + 1 < values.length; i += 2){
+			double v1, v2, s;
+			do {
+				v1 = 2 * uniform() - 1;
+				v2 = 2 * uniform() - 1;
+				s = v1 * v1 + v2 * v2;
+			} while (s >= 1 || s == 0);
+			double multiplier = Math.sqrt(-2 * Math.log(s)/s);
+			values[i] = mean + sd * (v1 * multiplier);
+			values[i + 1] = mean + sd * (v2 * multiplier);
+		}
+		if(i < values.length){
+			values[i] = normal(mean, sd);
+		}
+	}
+
+	public double gamma(double shape){
+		/*
+		 * Sample from Gamma(shape, 1) with the Marsaglia-Tsang method. Shapes below 1 are sampled as
+		 * Gamma(shape + 1) * U^(1/shape)
+		 *
+		 * @param shape Shape of the gamma distribution, has to be > 0
+		 *
+		 * @return Sample from Gamma(shape, 1)
+		 */
+		if(shape < 1){
+			double u;
+			do {
+				u = uniform();
+			} while (u == 0);
+			return (gamma(shape + 1) * Math.pow(u, 1 / shape));
+		}
+		double d = shape - 1.0 / 3;
+		double c = 1 / Math.sqrt(9 * d);
+		while(true){
+			double x, v;
+			do {
+				x = gaussian();
+				v = 1 + c * x;
+			} while (v <= 0);
+			v = v * v * v;
+			double u = uniform();
+			if(u < 1 - 0.0331 * x * x * x * x || Math.log(u) < 0.5 * x * x + d * (1 - v + Math.log(v))){
+				return (d * v);
+			}
+		}
+	}
+
+	public static long streamSeed(long seed, long streamNumber){
+		/*
+		 * Derive the seed of an independent random stream from the master seed, so that
+		 * neighbouring stream numbers give uncorrelated seeds
+		 *
+		 * @param seed The master seed
+		 *
+		 * @param streamNumber Number of the stream, e.g. the QTL number
+		 *
+		 * @return Seed for the random stream
+		 */
+		return (mix(seed + (streamNumber + 1) * 0x9E3779B97F4A7C15L));
+	}
+
+	private static long mix(long z){
+		// SplitMix64 finalizer
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return (z ^ (z >>> 31));
+	}
+}
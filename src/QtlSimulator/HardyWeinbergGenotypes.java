@@ -0,0 +1,44 @@
+package QtlSimulator;
+
+public class HardyWeinbergGenotypes {
+	// uniform samples are compared as 53 bit integers, the same resolution as GaussianSampler.uniform()
+	private static final double SCALE = 0x1.0p53;
+	private final double minorAlleleFrequency;
+	private final long homozygousMajorThreshold;
+	private final long heterozygousThreshold;
+	public HardyWeinbergGenotypes(double minorAlleleFrequency){
+		/*
+		 * Genotypes in Hardy-Weinberg equilibrium, coded as the number of minor alleles. With p the minor allele frequency
+		 * and q = 1 - p: P(0) = q^2, P(1) = 2pq and P(2) = p^2. The cumulative probabilities are precomputed as thresholds
+		 * so that a genotype costs one random long and two compares
+		 *
+		 * @param minorAlleleFrequency Frequency of the minor allele, between 0 and 0.5
+		 */
+		if(minorAlleleFrequency < 0 || minorAlleleFrequency > 0.5){
+			throw new IllegalArgumentException("Minor allele frequency has to be between 0 and 0.5, was: "+Double.toString(minorAlleleFrequency));
+		}
+		double p = minorAlleleFrequency;
+		double q = 1 - p;
+		this.minorAlleleFrequency = minorAlleleFrequency;
+		this.homozygousMajorThreshold = (long) (q * q * SCALE);
+		this.heterozygousThreshold = (long) ((q * q + 2 * p * q) * SCALE);
+	}
+
+	public double getMinorAlleleFrequency(){
+		return (minorAlleleFrequency);
+	}
+
+	public void fill(GaussianSampler random, byte[] genotypes){
+		/*
+		 * Draw the genotypes of all samples of a QTL
+		 *
+		 * @param random Random stream of the QTL
+		 *
+		 * @param genotypes Array to fill with 0, 1 or 2 per sample
+		 */
+		for (int s = 0; s < genotypes.length; s++){
+			long u = random.nextLong() >>> 11;
+			genotypes[s] = (byte) ((u >= homozygousMajorThreshold ? 1 : 0) + (u >= heterozygousThreshold ? 1 : 0));
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package QtlSimulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class MappedBinaryMatrix implements AutoCloseable {
+	// rows are mapped in segments of at most this many bytes, a single MappedByteBuffer can not be larger than 2GB
+	private static final long MAX_SEGMENT_SIZE = 1L << 30;
+	private final RandomAccessFile file;
+	private final byte matrixType;
+	private final long numberOfRows;
+	private final int numberOfColumns;
+	private final long firstRowNumber;
+	private final String rowNamePrefix;
+	private final String[] columnNames;
+	private final int rowSize;
+	private final long rowsPerSegment;
+	private final MappedByteBuffer[] segments;
+	public MappedBinaryMatrix(File matrixFile) throws IOException{
+		/*
+		 * Memory maps a matrix written by BinaryMatrixWriter. Rows can be read in any order without parsing the file
+		 *
+		 * @param matrixFile The binary matrix file
+		 */
+		this.file = new RandomAccessFile(matrixFile, "r");
+		FileChannel channel = file.getChannel();
+		BinaryMatrixHeader header;
+		try {
+			header = BinaryMatrixHeader.read(channel);
+		} catch (IOException e) {
+			file.close();
+			throw new IOException("Can not read binary matrix "+matrixFile.getPath(), e);
+		}
+		this.matrixType = header.getMatrixType();
+		this.numberOfRows = header.getNumberOfRows();
+		this.numberOfColumns = header.getNumberOfColumns();
+		this.firstRowNumber = header.getFirstRowNumber();
+		this.rowNamePrefix = header.getRowNamePrefix();
+		this.columnNames = header.getColumnNames();
+		this.rowSize = header.getRowSize();
+		this.rowsPerSegment = Math.max(1, MAX_SEGMENT_SIZE / rowSize);
+		int numberOfSegments = (int) ((numberOfRows + rowsPerSegment - 1) / rowsPerSegment);
+		this.segments = new MappedByteBuffer[numberOfSegments];
+		try {
+			// mapping past the end of a read-only file fails with an error that does not say which file is too short
+			long expectedSize = header.getDataOffset() + numberOfRows * rowSize;
+			if(channel.size() < expectedSize){
+				throw new IOException("Binary matrix "+matrixFile.getPath()+" has "+Long.toString(channel.size())+" bytes, its header needs "+
+						Long.toString(expectedSize)+" bytes for "+Long.toString(numberOfRows)+" rows. Is it from a run that did not finish?");
+			}
+			for (int i = 0; i < numberOfSegments; i++){
+				long rowsInSegment = Math.min(rowsPerSegment, numberOfRows - i * rowsPerSegment);
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, header.getDataOffset() + i * rowsPerSegment * rowSize, rowsInSegment * rowSize);
+				segments[i].order(ByteOrder.LITTLE_ENDIAN);
+			}
+		} catch (IOException | RuntimeException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	public boolean isGenotypeMatrix(){
+		return (matrixType == BinaryMatrixHeader.GENOTYPES);
+	}
+	public long getNumberOfRows(){
+		return (numberOfRows);
+	}
+	public int getNumberOfColumns(){
+		return (numberOfColumns);
+	}
+	public String[] getColumnNames(){
+		return (columnNames.clone());
+	}
+	public String getRowName(long row){
+		return (rowNamePrefix+Long.toString(firstRowNumber + row));
+	}
+
+	public float[] getRow(long row, float[] values){
+		/*
+		 * Read the values of a FLOAT32 matrix row
+		 *
+		 * @param row 0-based row index
+		 *
+		 * @param values Array to read into, a new array is made if it is null
+		 *
+		 * @return The values of the row
+		 */
+		if(isGenotypeMatrix()){
+			throw new IllegalStateException("Genotype matrix has no float values, use getGenotypes()");
+		}
+		if(values == null){
+			values = new float[numberOfColumns];
+		}
+		ByteBuffer segment = segments[segmentOf(row)];
+		int offset = rowOffset(row);
+		for (int c = 0; c < numberOfColumns; c++){
+			values[c] = segment.getFloat(offset + 4 * c);
+		}
+		return (values);
+	}
+
+	public float getValue(long row, int column){
+		if(isGenotypeMatrix()){
+			throw new IllegalStateException("Genotype matrix has no float values, use getGenotype()");
+		}
+		return (segments[segmentOf(row)].getFloat(rowOffset(row) + 4 * column));
+	}
+
+	public byte[] getGenotypes(long row, byte[] genotypes){
+		/*
+		 * Unpack the genotypes (0, 1 or 2) of a GENOTYPES matrix row
+		 *
+		 * @param row 0-based row index
+		 *
+		 * @param genotypes Array to read into, a new array is made if it is null
+		 *
+		 * @return The genotypes of the row
+		 */
+		if(!isGenotypeMatrix()){
+			throw new IllegalStateException("Matrix has no genotypes, use getRow()");
+		}
+		if(genotypes == null){
+			genotypes = new byte[numberOfColumns];
+		}
+		ByteBuffer segment = segments[segmentOf(row)];
+		int offset = rowOffset(row);
+		for (int c = 0; c < numberOfColumns; c++){
+			genotypes[c] = (byte) ((segment.get(offset + (c >> 2)) >> (2 * (c & 3))) & 3);
+		}
+		return (genotypes);
+	}
+
+	public int getGenotype(long row, int column){
+		if(!isGenotypeMatrix()){
+			throw new IllegalStateException("Matrix has no genotypes, use getValue()");
+		}
+		return ((segments[segmentOf(row)].get(rowOffset(row) + (column >> 2)) >> (2 * (column & 3))) & 3);
+	}
+
+	private int segmentOf(long row){
+		if(row < 0 || row >= numberOfRows){
+			throw new IndexOutOfBoundsException("Row "+Long.toString(row)+" not in matrix with "+Long.toString(numberOfRows)+" rows");
+		}
+		return ((int) (row / rowsPerSegment));
+	}
+
+	private int rowOffset(long row){
+		return ((int) ((row % rowsPerSegment) * rowSize));
+	}
+
+	public void close() throws IOException{
+		file.close();
+	}
+}
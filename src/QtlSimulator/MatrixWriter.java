@@ -0,0 +1,15 @@
+package QtlSimulator;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+public interface MatrixWriter extends Closeable {
+	/*
+	 * Writer for one output matrix with a row per QTL and a column per sample
+	 */
+	void writeRow(String rowName, double[] values) throws IOException;
+	void writeRow(String rowName, byte[] values) throws IOException;
+	// hand the partially filled buffer to the output, e.g. before a checkpoint
+	void flush() throws IOException;
+	void close() throws IOException;
+}
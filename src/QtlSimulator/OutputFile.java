@@ -0,0 +1,115 @@
+package QtlSimulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.GZIPOutputStream;
+
+import io.airlift.compress.zstd.ZstdOutputStream;
+
+public class OutputFile implements WritableByteChannel {
+	private final File file;
+	private final FileChannel fileChannel;
+	private final String compression;
+	private OutputStream compressor;
+	private WritableByteChannel channel;
+	public OutputFile(File file, String compression, long offset) throws IOException{
+		/*
+		 * Output file that is optionally compressed and can be checkpointed. At a checkpoint the gzip member or zstd frame
+		 * is finished, so that the file up to the returned size can be decompressed on its own. A resumed run truncates
+		 * the file to that size and appends a new member or frame, which decompressors read as one continuous stream.
+		 *
+		 * @param file File to write to
+		 *
+		 * @param compression none, gzip or zstd
+		 *
+		 * @param offset Number of bytes of an existing file to keep and append to, 0 to overwrite the file
+		 */
+		if(!compression.equals("none") && !compression.equals("gzip") && !compression.equals("zstd")){
+			throw new IllegalArgumentException("Compression has to be none, gzip or zstd, was: "+compression);
+		}
+		this.file = file;
+		this.compression = compression;
+		this.fileChannel = new RandomAccessFile(file, "rw").getChannel();
+		try {
+			if(fileChannel.size() < offset){
+				throw new IOException(file.getPath()+" has "+Long.toString(fileChannel.size())+" bytes, expected at least "+Long.toString(offset));
+			}
+			fileChannel.truncate(offset);
+			fileChannel.position(offset);
+			startCompression();
+		} catch (IOException e) {
+			fileChannel.close();
+			throw e;
+		}
+	}
+
+	private void startCompression() throws IOException{
+		// closing the compressor finishes the member or frame, but has to leave the file open
+		OutputStream fileStream = new OutputStream() {
+			private final OutputStream stream = Channels.newOutputStream(fileChannel);
+			public void write(int b) throws IOException{
+				stream.write(b);
+			}
+			public void write(byte[] b, int offset, int length) throws IOException{
+				stream.write(b, offset, length);
+			}
+		};
+		if(compression.equals("gzip")){
+			compressor = new GZIPOutputStream(fileStream, TsvMatrixWriter.BUFFER_SIZE);
+			channel = Channels.newChannel(compressor);
+		}
+		else if(compression.equals("zstd")){
+			compressor = new ZstdOutputStream(fileStream);
+			channel = Channels.newChannel(compressor);
+		}
+		else{
+			compressor = null;
+			channel = fileChannel;
+		}
+	}
+
+	public int write(ByteBuffer source) throws IOException{
+		return (channel.write(source));
+	}
+
+	public boolean isOpen(){
+		return (fileChannel.isOpen());
+	}
+
+	public long checkpoint() throws IOException{
+		/*
+		 * Finish the compressed member or frame and start a new one
+		 *
+		 * @return Size of the file, everything written so far is in the file up to this size
+		 */
+		if(compressor == null){
+			return (fileChannel.position());
+		}
+		compressor.close();
+		// the size before the next member is started, gzip writes the header of the new member right away
+		long size = fileChannel.position();
+		startCompression();
+		return (size);
+	}
+
+	public File getFile(){
+		return (file);
+	}
+
+	public void close() throws IOException{
+		try {
+			if(compressor != null){
+				compressor.close();
+			}
+		}
+		finally{
+			fileChannel.close();
+		}
+	}
+}
@@ -0,0 +1,276 @@
+package QtlSimulator;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+public final class QtlGroupSpec {
+	private final double[] genotypeCoefficients;
+	private final double[] interactionCoefficients;
+	private final double[] minorAlleleFrequencies;
+	private final double[] weights;
+	// number of QTLs of a group, or -1 when the group gets its share of the QTLs by weight
+	private final int[] replicates;
+	private QtlGroupSpec(double[] genotypeCoefficients, double[] interactionCoefficients, double[] minorAlleleFrequencies,
+			double[] weights, int[] replicates){
+		/*
+		 * Groups of QTLs with the same genotype coefficient, interaction coefficient and MAF. QTLs are numbered group after
+		 * group in the order of the groups. A group either has a fixed number of replicates, or gets a share of the
+		 * remaining QTLs in proportion to its weight
+		 */
+		this.genotypeCoefficients = genotypeCoefficients;
+		this.interactionCoefficients = interactionCoefficients;
+		this.minorAlleleFrequencies = minorAlleleFrequencies;
+		this.weights = weights;
+		this.replicates = replicates;
+		for (int g = 0; g < weights.length; g++){
+			if(minorAlleleFrequencies[g] < 0 || minorAlleleFrequencies[g] > 0.5){
+				throw new IllegalArgumentException("Minor allele frequency has to be between 0 and 0.5, was: "+Double.toString(minorAlleleFrequencies[g]));
+			}
+			if(!(weights[g] >= 0) || Double.isInfinite(weights[g])){
+				throw new IllegalArgumentException("Group weight has to be a number >= 0, was: "+Double.toString(weights[g]));
+			}
+		}
+		if(weights.length == 0){
+			throw new IllegalArgumentException("At least one QTL group is needed");
+		}
+	}
+
+	public static QtlGroupSpec grid(double[] genotypeCoefficientGroups, double[] interactionCoefficientGroups, double[] minorAlleleFrequencyGroups){
+		/*
+		 * All combinations of the genotype coefficients, interaction coefficients and MAFs with the same weight, ordered
+		 * genotype coefficient > interaction coefficient > MAF
+		 */
+		GroupList groups = new GroupList();
+		groups.addGrid(genotypeCoefficientGroups, interactionCoefficientGroups, minorAlleleFrequencyGroups, 1, -1);
+		return (groups.toSpec());
+	}
+
+	public static QtlGroupSpec read(File specFile) throws IOException{
+		/*
+		 * Read the groups from a tab separated file with a header line. Lines starting with # and empty lines are skipped
+		 *
+		 *   genotypeCoefficient  interactionCoefficient  minorAlleleFrequency  [weight]  [replicates]
+		 *
+		 * A value can be a comma separated list, the line then adds all combinations of the values as separate groups,
+		 * ordered genotype coefficient > interaction coefficient > MAF. The weight is 1 when it is missing. When replicates
+		 * is given every group of the line gets exactly that many QTLs, otherwise the groups share the remaining QTLs by weight.
+		 *
+		 * @param specFile The spec file
+		 */
+		GroupList groups = new GroupList();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(specFile), StandardCharsets.UTF_8));
+		try {
+			List<String> header = null;
+			String line;
+			int lineNumber = 0;
+			while((line = reader.readLine()) != null){
+				lineNumber++;
+				if(line.trim().isEmpty() || line.startsWith("#")){
+					continue;
+				}
+				String[] fields = line.split("\t", -1);
+				if(header == null){
+					header = Arrays.asList(fields);
+					if(!header.contains("genotypeCoefficient") || !header.contains("interactionCoefficient") || !header.contains("minorAlleleFrequency")){
+						throw new IllegalArgumentException(specFile.getPath()+": header needs the columns genotypeCoefficient, interactionCoefficient and minorAlleleFrequency");
+					}
+					continue;
+				}
+				try {
+					double[] genotypeCoefficients = parseValues(fields[header.indexOf("genotypeCoefficient")]);
+					double[] interactionCoefficients = parseValues(fields[header.indexOf("interactionCoefficient")]);
+					double[] minorAlleleFrequencies = parseValues(fields[header.indexOf("minorAlleleFrequency")]);
+					String weight = getField(fields, header.indexOf("weight"));
+					String replicates = getField(fields, header.indexOf("replicates"));
+					groups.addGrid(genotypeCoefficients, interactionCoefficients, minorAlleleFrequencies,
+							weight.isEmpty() ? 1 : Double.parseDouble(weight), replicates.isEmpty() ? -1 : Integer.parseInt(replicates));
+				} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+					throw new IllegalArgumentException(specFile.getPath()+" line "+Integer.toString(lineNumber)+" is not a valid group: "+line, e);
+				}
+			}
+		}
+		finally{
+			reader.close();
+		}
+		return (groups.toSpec());
+	}
+
+	private static String getField(String[] fields, int column){
+		if(column < 0 || column >= fields.length){
+			return ("");
+		}
+		return (fields[column].trim());
+	}
+
+	private static double[] parseValues(String field){
+		String[] items = field.split(",");
+		double[] values = new double[items.length];
+		for (int i = 0; i < items.length; i++){
+			values[i] = Double.parseDouble(items[i].trim());
+		}
+		return (values);
+	}
+
+	public int getNumberOfGroups(){
+		return (weights.length);
+	}
+	public double getGenotypeCoefficient(int group){
+		return (genotypeCoefficients[group]);
+	}
+	public double getInteractionCoefficient(int group){
+		return (interactionCoefficients[group]);
+	}
+	public double getMinorAlleleFrequency(int group){
+		return (minorAlleleFrequencies[group]);
+	}
+	public double getWeight(int group){
+		return (weights[group]);
+	}
+	public int getReplicates(int group){
+		/*
+		 * @return The fixed number of QTLs of the group, or -1 if the group gets QTLs by weight
+		 */
+		return (replicates[group]);
+	}
+
+	public String getDigest(){
+		/*
+		 * @return SHA-256 of the groups in hex, the same for spec files that give the same groups, e.g. with other comments
+		 */
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+		StringBuilder groups = new StringBuilder();
+		for (int g = 0; g < weights.length; g++){
+			groups.append(genotypeCoefficients[g]).append('\t').append(interactionCoefficients[g]).append('\t')
+					.append(minorAlleleFrequencies[g]).append('\t').append(weights[g]).append('\t').append(replicates[g]).append('\n');
+		}
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest(groups.toString().getBytes(StandardCharsets.UTF_8))){
+			hex.append(String.format("%02x", b));
+		}
+		return (hex.toString());
+	}
+
+	public int[] getQtlsPerGroup(int numberOfQtls){
+		/*
+		 * Divide the QTLs over the groups. Groups with replicates get exactly that many QTLs, the other groups share the
+		 * rest in proportion to their weight, rounded with the largest remainder method so that the total is exact.
+		 * Groups with equal remainders get the left over QTLs evenly spread over the groups, not only the first groups
+		 *
+		 * @param numberOfQtls Total number of QTLs, ignored when every group has replicates
+		 *
+		 * @return Number of QTLs per group
+		 */
+		int[] qtlsPerGroup = new int[weights.length];
+		long fixedQtls = 0;
+		double totalWeight = 0;
+		List<Integer> weightedGroups = new ArrayList<Integer>();
+		for (int g = 0; g < weights.length; g++){
+			if(replicates[g] >= 0){
+				qtlsPerGroup[g] = replicates[g];
+				fixedQtls += replicates[g];
+			}
+			else{
+				weightedGroups.add(g);
+				totalWeight += weights[g];
+			}
+		}
+		if(weightedGroups.isEmpty()){
+			if(fixedQtls > Integer.MAX_VALUE){
+				throw new IllegalArgumentException("Groups have more than "+Integer.toString(Integer.MAX_VALUE)+" replicates in total");
+			}
+			return (qtlsPerGroup);
+		}
+		long remainingQtls = numberOfQtls - fixedQtls;
+		if(remainingQtls < 0){
+			throw new IllegalArgumentException("Groups with replicates have "+Long.toString(fixedQtls)+" QTLs, more than the "+
+					Integer.toString(numberOfQtls)+" QTLs to simulate");
+		}
+		if(remainingQtls > 0 && totalWeight == 0){
+			throw new IllegalArgumentException("Groups without replicates need a weight > 0 to get the remaining "+Long.toString(remainingQtls)+" QTLs");
+		}
+		final double[] remainders = new double[weights.length];
+		long assignedQtls = 0;
+		for (int g : weightedGroups){
+			double share = remainingQtls * (weights[g] / totalWeight);
+			qtlsPerGroup[g] = (int) Math.floor(share);
+			remainders[g] = share - qtlsPerGroup[g];
+			assignedQtls += qtlsPerGroup[g];
+		}
+		// largest remainders first, groups with equal remainders stay in group order
+		List<Integer> byRemainder = new ArrayList<Integer>(weightedGroups);
+		byRemainder.sort(new Comparator<Integer>() {
+			public int compare(Integer group1, Integer group2){
+				return (Double.compare(remainders[group2], remainders[group1]));
+			}
+		});
+		long leftOverQtls = remainingQtls - assignedQtls;
+		int start = 0;
+		while(leftOverQtls > 0){
+			int end = start;
+			while(end < byRemainder.size() && remainders[byRemainder.get(end)] == remainders[byRemainder.get(start)]){
+				end++;
+			}
+			int tiedGroups = end - start;
+			if(leftOverQtls >= tiedGroups){
+				for (int i = start; i < end; i++){
+					qtlsPerGroup[byRemainder.get(i)]++;
+				}
+				leftOverQtls -= tiedGroups;
+			}
+			else{
+				// e.g. the default grid with fewer QTLs than groups: every n-th group gets a QTL
+				for (long i = 0; i < leftOverQtls; i++){
+					qtlsPerGroup[byRemainder.get(start + (int) (i * tiedGroups / leftOverQtls))]++;
+				}
+				leftOverQtls = 0;
+			}
+			start = end;
+		}
+		return (qtlsPerGroup);
+	}
+
+	private static class GroupList {
+		private final List<double[]> groups = new ArrayList<double[]>();
+		private final List<Integer> replicates = new ArrayList<Integer>();
+		private void addGrid(double[] genotypeCoefficients, double[] interactionCoefficients, double[] minorAlleleFrequencies,
+				double weight, int replicates){
+			if(replicates < -1){
+				throw new IllegalArgumentException("Replicates can not be negative, was: "+Integer.toString(replicates));
+			}
+			for (double genotypeCoefficient : genotypeCoefficients){
+				for (double interactionCoefficient : interactionCoefficients){
+					for (double minorAlleleFrequency : minorAlleleFrequencies){
+						groups.add(new double[]{genotypeCoefficient, interactionCoefficient, minorAlleleFrequency, weight});
+						this.replicates.add(replicates);
+					}
+				}
+			}
+		}
+		private QtlGroupSpec toSpec(){
+			double[][] columns = new double[4][groups.size()];
+			int[] replicateArray = new int[groups.size()];
+			for (int g = 0; g < groups.size(); g++){
+				for (int i = 0; i < 4; i++){
+					columns[i][g] = groups.get(g)[i];
+				}
+				replicateArray[g] = replicates.get(g);
+			}
+			return (new QtlGroupSpec(columns[0], columns[1], columns[2], columns[3], replicateArray));
+		}
+	}
+}
@@ -0,0 +1,195 @@
+package QtlSimulator;
+
+import java.util.Arrays;
+
+public class QtlRowSimulator {
+	private final SimulationConfig config;
+	private final CellcountMatrix cellcountMatrix;
+	private final QtlGroupSpec qtlGroups;
+	private final HardyWeinbergGenotypes[] genotypeTables;
+	// number of the last QTL of each group, QTLs of group g are numbered lastQtlOfGroup[g-1]+1 - lastQtlOfGroup[g]
+	private final int[] lastQtlOfGroup;
+	private final long seed;
+	private final ThreadLocal<Workspace> workspaces;
+	private static class Workspace {
+		// per thread arrays with a value per sample for the random terms that are not part of the output row
+		private final double[] celltypeCoefficients;
+		private final double[] genotypeCoefficients;
+		private final double[] interactionCoefficients;
+		private final double[] draws;
+		private Workspace(int numberOfSamples){
+			celltypeCoefficients = new double[numberOfSamples];
+			genotypeCoefficients = new double[numberOfSamples];
+			interactionCoefficients = new double[numberOfSamples];
+			draws = new double[numberOfSamples];
+		}
+	}
+	public QtlRowSimulator(SimulationConfig config, CellcountMatrix cellcountMatrix){
+		/*
+		 * Simulates single QTLs independent of each other. Every QTL gets its own random stream derived from the
+		 * master seed and the QTL number, so a QTL is always simulated the same way regardless of which thread
+		 * simulates it or in which order the QTLs are simulated.
+		 *
+		 * @param config Settings of the simulation, including the QTL groups
+		 *
+		 * @param cellcountMatrix Cellcounts per celltype per sample, as simulated by Simulator
+		 */
+		this.config = config;
+		this.cellcountMatrix = cellcountMatrix;
+		this.qtlGroups = config.getQtlGroups();
+		int numberOfGroups = qtlGroups.getNumberOfGroups();
+		this.genotypeTables = new HardyWeinbergGenotypes[numberOfGroups];
+		this.lastQtlOfGroup = new int[numberOfGroups];
+		int[] qtlsPerGroup = qtlGroups.getQtlsPerGroup(config.getNumberOfQtls());
+		long lastQtl = 0;
+		for (int g = 0; g < numberOfGroups; g++){
+			genotypeTables[g] = new HardyWeinbergGenotypes(qtlGroups.getMinorAlleleFrequency(g));
+			lastQtl += qtlsPerGroup[g];
+			if(lastQtl > Integer.MAX_VALUE){
+				throw new IllegalArgumentException("QTL groups have more than "+Integer.toString(Integer.MAX_VALUE)+" QTLs");
+			}
+			lastQtlOfGroup[g] = (int) lastQtl;
+		}
+		this.seed = config.getSeed();
+		final int numberOfSamples = config.getSampleSize();
+		this.workspaces = new ThreadLocal<Workspace>() {
+			protected Workspace initialValue(){
+				return (new Workspace(numberOfSamples));
+			}
+		};
+	}
+
+	public int getNumberOfQtls(){
+		/*
+		 * Total number of QTLs that are simulated over all groups, exactly the number of QTLs of the config unless
+		 * every group has a fixed number of replicates
+		 */
+		return (lastQtlOfGroup[lastQtlOfGroup.length - 1]);
+	}
+
+	public int getGroup(int qtlNumber){
+		/*
+		 * @param qtlNumber The 1-based QTL number
+		 *
+		 * @return Index of the group of the QTL in the QtlGroupSpec
+		 */
+		if(qtlNumber < 1 || qtlNumber > getNumberOfQtls()){
+			throw new IllegalArgumentException("QTLs are numbered 1 - "+Integer.toString(getNumberOfQtls())+", asked for "+Integer.toString(qtlNumber));
+		}
+		int group = Arrays.binarySearch(lastQtlOfGroup, qtlNumber);
+		if(group < 0){
+			return (-group - 1);
+		}
+		// groups without QTLs have the same last QTL as the group before them, take the first group that ends here
+		while(group > 0 && lastQtlOfGroup[group - 1] == qtlNumber){
+			group--;
+		}
+		return (group);
+	}
+
+	public SimulatedQtl simulate(int qtlNumber){
+		return (simulate(qtlNumber, null));
+	}
+
+	public static void sampleCellcountFactors(GaussianSampler random, double[] scaledCellcounts, double[] cellcountFactors){
+		/*
+		 * Cellcount factor of every sample for one celltype, N(scaled cellcount, 1), drawn as the scaled cellcount plus a
+		 * standard normal draw
+		 *
+		 * @param scaledCellcounts Scaled cellcounts of the celltype, from CellcountMatrix.getScaledCellcounts()
+		 *
+		 * @param cellcountFactors Array to fill, one factor per sample
+		 */
+		random.fillNormal(cellcountFactors, 0, 1);
+		for (int s = 0; s < cellcountFactors.length; s++){
+			cellcountFactors[s] += scaledCellcounts[s];
+		}
+	}
+
+	public SimulatedQtl simulate(int qtlNumber, SimulatedQtl reusedRow){
+		/*
+		 * Simulate expression and genotypes of one QTL. The QTL number determines the group and with that the genotype
+		 * coefficient, interaction coefficient and MAF, QTLs are numbered group after group
+		 *
+		 * @param qtlNumber The 1-based QTL number, e.g. 1 for QTL_1
+		 *
+		 * @param reusedRow Row of an earlier QTL of this simulator to overwrite, or null to allocate a new row
+		 *
+		 * @return The simulated row of the QTL
+		 */
+		int group = getGroup(qtlNumber);
+		double genotypeCoefficientMean = qtlGroups.getGenotypeCoefficient(group);
+		double interactionCoefficientMean = qtlGroups.getInteractionCoefficient(group);
+		double minorAlleleFrequency = qtlGroups.getMinorAlleleFrequency(group);
+
+		int numberOfSamples = config.getSampleSize();
+		int numberOfCelltypes = config.getNumberOfCelltypes();
+		SimulatedQtl row = reusedRow;
+		if(row == null){
+			row = new SimulatedQtl(qtlNumber, numberOfSamples, numberOfCelltypes,
+					genotypeCoefficientMean, interactionCoefficientMean, minorAlleleFrequency);
+		}
+		else{
+			row.setQtl(qtlNumber, genotypeCoefficientMean, interactionCoefficientMean, minorAlleleFrequency);
+		}
+		GaussianSampler random = new GaussianSampler(GaussianSampler.streamSeed(seed, qtlNumber));
+		Workspace workspace = workspaces.get();
+		double[] celltypeCoefficients = workspace.celltypeCoefficients;
+		double[] genotypeCoefficients = workspace.genotypeCoefficients;
+		double[] interactionCoefficients = workspace.interactionCoefficients;
+		double[] draws = workspace.draws;
+		double[] expression = row.getExpression();
+		// genotypes 0, 1 or 2 in Hardy-Weinberg proportions of the MAF of this QTL
+		byte[] genotypes = row.getGenotypes();
+		genotypeTables[group].fill(random, genotypes);
+
+		// Every random term is drawn for all samples at once, after which the expression is combined in plain array loops
+		random.fillNormal(celltypeCoefficients, 10, 1);
+		random.fillNormal(genotypeCoefficients, genotypeCoefficientMean, 0.3);
+		// the noise is a normal distribution around the given mean so that each gene has a different (altho close to given) mean expression distribution
+		// the SD of this distribution is large as genes can have a large difference in expression levels
+		// Get the expression level for current QTL and current Sample. SD is low as between samples should not be high difference of "base" expression level
+		// (variance should be mostly in the genotype and interaction coefficient)
+		random.fillNormal(expression, config.getNoise(), config.getNoise()/4);
+		random.fillNormal(draws, 0, 1);
+		for (int s = 0; s < numberOfSamples; s++){
+			// biological noise around the noise of the sample
+			expression[s] += Math.abs(expression[s]/6.0) * draws[s];
+		}
+
+		for (int c = 0; c < numberOfCelltypes; c++){
+			// only have an interaction effect on the first celltype, to simplify matters
+			random.fillNormal(interactionCoefficients, c == 0 ? interactionCoefficientMean : 0, 0.3);
+			row.getInteractionCoefficients()[c] = interactionCoefficients[0];
+			sampleCellcountFactors(random, cellcountMatrix.getScaledCellcounts(c), draws);
+			double[] celltypeExpression = row.getExpressionPerCelltype()[c];
+			for (int s = 0; s < numberOfSamples; s++){
+				double cellcountFactor = draws[s];
+				int genotype = genotypes[s];
+				double celltypeSpecificExpression = (celltypeCoefficients[s]) +// * cellcountFactor) +
+						(genotypeCoefficients[s] * genotype) +
+						(interactionCoefficients[s] * genotype * cellcountFactor);
+				celltypeExpression[s] = Math.max(celltypeSpecificExpression, 0);
+				expression[s] += celltypeExpression[s];
+			}
+		}
+		for (int s = 0; s < numberOfSamples; s++){
+			// expression evel cant be lower than 0, if negative give it random number between 0 and 1 (reflects real life higher level of 0-1 genes as well
+			if (expression[s] < 0){
+				expression[s] = 0 + random.uniform();
+			}
+		}
+
+		double averageCelltypeCoefficient = 0;
+		double averageGenotypeCoefficient = 0;
+		for (int s = 0; s < numberOfSamples; s++){
+			averageCelltypeCoefficient += celltypeCoefficients[s];
+			averageGenotypeCoefficient += genotypeCoefficients[s];
+		}
+		averageCelltypeCoefficient /= numberOfSamples;
+		averageGenotypeCoefficient /= numberOfSamples;
+		row.setAverageCelltypeCoefficient(averageCelltypeCoefficient);
+		row.setAverageGenotypeCoefficient(averageGenotypeCoefficient);
+		return (row);
+	}
+}
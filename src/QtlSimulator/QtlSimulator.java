@@ -1,29 +1,23 @@
 package QtlSimulator;
 
-import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
-
-import org.apache.commons.math3.distribution.NormalDistribution;
-
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.LinkedListMultimap;
-import com.google.common.collect.Multimap;
 
 public class QtlSimulator {
-	private static CommandLineOptions commandLineOptions = new CommandLineOptions(); 
-	private static BufferedWriter expressionWriter;
-	private static BufferedWriter genotypeWriter;
-	private static BufferedWriter infoWriter;
-	private static HashMap<String, BufferedWriter> expressionPerCelltypeWriterMap = new HashMap<String, BufferedWriter>();
+	private final CommandLineOptions commandLineOptions;
+	private MatrixWriter expressionWriter;
+	private MatrixWriter genotypeWriter;
+	private TsvMatrixWriter infoWriter;
+	private BackgroundWriter backgroundWriter;
+	private RunMetrics runMetrics;
+	private MatrixWriter[] expressionPerCelltypeWriters;
+	// checkpoint of an interrupted run that is resumed, null when starting a new run
+	private Checkpoint resumeCheckpoint;
 	public static void main(String[] args) throws Exception {
 		/*
 		 * Simulate QTL data with 
@@ -35,250 +29,340 @@ public class QtlSimulator {
 		 * 
 		 * @param args List of command line arguments
 		 */
+		if(args.length > 0 && args[0].equals("merge")){
+			ShardMerger.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		CommandLineOptions commandLineOptions = new CommandLineOptions();
 		commandLineOptions.parseCommandLine(args);
-		simulateQTLs();
+		if(commandLineOptions.isDryRun()){
+			new DryRun(commandLineOptions).run();
+			return;
+		}
+		new QtlSimulator(commandLineOptions).simulateQTLs();
+	}
+
+	public QtlSimulator(CommandLineOptions commandLineOptions){
+		/*
+		 * Writes the QTLs of a Simulator to the output files given on the command line
+		 *
+		 * @param commandLineOptions Parsed command line options
+		 */
+		this.commandLineOptions = commandLineOptions;
 	}
 
-	public static void initializeFiles() throws IOException{
-		new File(commandLineOptions.getOutfolder()).mkdirs();
-		File simulatedExpressionFile = new File(commandLineOptions.getOutfolder()+"/simulatedExpression.csv");
-		FileOutputStream simulatedExpressionStream = new FileOutputStream(simulatedExpressionFile);
-		expressionWriter = new BufferedWriter(new OutputStreamWriter(simulatedExpressionStream));
+	private void initializeFiles(int firstQtl, int numberOfQtls) throws IOException{
+		/*
+		 * Open the expression, genotype and per celltype expression files in the output format from the
+		 * command line, and the info file
+		 *
+		 * @param firstQtl Number of the first QTL that will be written, needed for the header of binary files
+		 *
+		 * @param numberOfQtls Number of QTLs that will be written, needed for the header of binary files
+		 */
+		// expression per celltype, expression, genotypes, info and the cellcount file
+		int numberOfOutputs = commandLineOptions.getCellcountPercentages().length + 4;
+		// every output holds one buffer while filling it, the rest of the pool is for buffers waiting to be written.
+		// The pool gets a quarter of --max-heap-buffer, but at least 2 buffers more than there are outputs
+		long bufferBudget = commandLineOptions.getMaxHeapBuffer() / 4 / TsvMatrixWriter.BUFFER_SIZE;
+		int numberOfBuffers = (int) Math.max(numberOfOutputs + 2, Math.min(Math.max(64, 4*numberOfOutputs), bufferBudget));
+		backgroundWriter = new BackgroundWriter(numberOfBuffers, TsvMatrixWriter.BUFFER_SIZE, runMetrics);
+		String[] sampleNames = getSampleNames(commandLineOptions.getSampleSize());
+		expressionWriter = openMatrixWriter("simulatedExpression", BinaryMatrixHeader.FLOAT32, sampleNames, firstQtl, numberOfQtls);
+		expressionPerCelltypeWriters = new MatrixWriter[commandLineOptions.getCellcountPercentages().length];
 		for(int c = 0; c < commandLineOptions.getCellcountPercentages().length; c++){
-			File simulatedExpressionCelltypeFile = new File(commandLineOptions.getOutfolder()+"/simulatedExpression_Celltype_"+Integer.toString(c)+".csv");
-			FileOutputStream simulatedExpressionCelltypeStream = new FileOutputStream(simulatedExpressionCelltypeFile);
-			BufferedWriter expressionCelltypeWriter = new BufferedWriter(new OutputStreamWriter(simulatedExpressionCelltypeStream));
-			expressionPerCelltypeWriterMap.put("celltype_"+Integer.toString(c), expressionCelltypeWriter);
-			// write headers with sample names
-			for (int s = 0; s < commandLineOptions.getSampleSize(); s++){
-				expressionCelltypeWriter.write("\tsample_"+Integer.toString(s));
+			expressionPerCelltypeWriters[c] = openMatrixWriter("simulatedExpression_Celltype_"+Integer.toString(c), 
+					BinaryMatrixHeader.FLOAT32, sampleNames, firstQtl, numberOfQtls);
+		}
+		genotypeWriter = openMatrixWriter("simulatedGenotypes", BinaryMatrixHeader.GENOTYPES, sampleNames, firstQtl, numberOfQtls);
+		infoWriter = new TsvMatrixWriter(openOutput("info.csv"), commandLineOptions.getPrecision());
+		// when resuming the header was written before the checkpoint
+		if(resumeCheckpoint == null){
+			writeInfoHeader(infoWriter, commandLineOptions.getCellcountPercentages().length);
+			if(commandLineOptions.getShardCount() > 1){
+				// the merger skips the headers of all but the first shard, compressed files without decompressing them
+				flushWriters();
+				backgroundWriter.endHeaders();
+			}
+		}
+		else{
+			for (Map.Entry<String, Long> headerSize : resumeCheckpoint.getHeaderSizes().entrySet()){
+				backgroundWriter.setHeaderSize(headerSize.getKey(), headerSize.getValue());
 			}
-			expressionCelltypeWriter.newLine();
 		}
-		File simulatedGenotypeFile = new File(commandLineOptions.getOutfolder()+"/simulatedGenotypes.csv");
-		FileOutputStream genotypeStream = new FileOutputStream(simulatedGenotypeFile);
-		genotypeWriter = new BufferedWriter(new OutputStreamWriter(genotypeStream));
-		File infoFile = new File(commandLineOptions.getOutfolder()+"/info.csv");
-		FileOutputStream infoStream = new FileOutputStream(infoFile);
-		infoWriter = new BufferedWriter(new OutputStreamWriter(infoStream));
+	}
 
-		infoWriter.write("QTL_name");
-		for(int c = 0; c < commandLineOptions.getCellcountPercentages().length; c++){
-			infoWriter.write("\tinteractionCelltype_"+Integer.toString(c));
+	static String[] getSampleNames(int sampleSize){
+		String[] sampleNames = new String[sampleSize];
+		for (int s = 0; s < sampleSize; s++){
+			sampleNames[s] = "sample_"+Integer.toString(s);
 		}
-		infoWriter.write("\tcelltypeCoefficient\tgenotypeCoefficient");
+		return (sampleNames);
+	}
+
+	static void writeInfoHeader(TsvMatrixWriter infoWriter, int numberOfCelltypes) throws IOException{
+		infoWriter.writeString("QTL_name");
+		for(int c = 0; c < numberOfCelltypes; c++){
+			infoWriter.writeString("\tinteractionCelltype_"+Integer.toString(c));
+		}
+		infoWriter.writeString("\tcelltypeCoefficient\tgenotypeCoefficient");
 		infoWriter.newLine();
+	}
+
+	static void writeSampleHeader(TsvMatrixWriter writer, String[] sampleNames) throws IOException{
 		// write headers with sample names
-		for (int s = 0; s < commandLineOptions.getSampleSize(); s++){
-			expressionWriter.write("\tsample_"+Integer.toString(s));
-			genotypeWriter.write("\tsample_"+Integer.toString(s));
+		for (String sampleName : sampleNames){
+			writer.writeTab();
+			writer.writeString(sampleName);
 		}
+		writer.newLine();
+	}
+
+	private MatrixWriter openMatrixWriter(String name, byte binaryMatrixType, String[] sampleNames, int firstQtl, int numberOfQtls) throws IOException{
+		/*
+		 * Open <outfolder>/<name>.bin in binary format or <outfolder>/<name>.csv with a header of sample names.
+		 * When resuming the header and the rows up to the checkpoint are already in the file
+		 */
+		if(commandLineOptions.getOutputFormat().equals("binary")){
+			BinaryMatrixHeader header = new BinaryMatrixHeader(binaryMatrixType, numberOfQtls, firstQtl, "QTL_", sampleNames);
+			long rowsWritten = resumeCheckpoint == null ? 0 : resumeCheckpoint.getLastQtl() - firstQtl + 1;
+			return (new BinaryMatrixWriter(openOutput(name+".bin"), header, rowsWritten));
+		}
+		TsvMatrixWriter writer = new TsvMatrixWriter(openOutput(name+".csv"), commandLineOptions.getPrecision());
+		if(resumeCheckpoint == null){
+			writeSampleHeader(writer, sampleNames);
+		}
+		return (writer);
+	}
 
-		expressionWriter.newLine();
-		genotypeWriter.newLine();
+	private ByteBufferOutput openOutput(String fileName) throws IOException{
+		return (openOutput(fileName, resumeCheckpoint != null));
+	}
+
+	private ByteBufferOutput openOutput(String fileName, boolean resume) throws IOException{
+		/*
+		 * Open an output file in the outfolder that is written by the background writer. With --compress the data is
+		 * compressed on the writer thread as well and the file gets a .gz or .zst extension. When resuming the file is
+		 * truncated to its size at the checkpoint and appended to
+		 *
+		 * @param resume True to append to the file from the checkpoint, false to write the file from the start
+		 */
+		String compression = commandLineOptions.getCompression();
+		if(compression.equals("gzip")){
+			fileName += ".gz";
+		}
+		else if(compression.equals("zstd")){
+			fileName += ".zst";
+		}
+		long offset = resume ? resumeCheckpoint.getFileSize(fileName) : 0;
+		OutputFile file = new OutputFile(new File(commandLineOptions.getOutfolder(), fileName), compression, offset);
+		return (backgroundWriter.newOutput(fileName, file));
+	}
 
+	public void simulateQTLs() throws IOException{
+		File outfolder = new File(commandLineOptions.getOutfolder());
+		outfolder.mkdirs();
+		if(commandLineOptions.isResume()){
+			readResumeCheckpoint(outfolder);
+		}
+		Simulator simulator = new Simulator(commandLineOptions.getSimulationConfig());
+		// with sharding every process simulates a consecutive part of all QTLs, so that the shards can be concatenated in shard index order
+		int firstQtl = getFirstQtlOfShard(simulator.getNumberOfQtls(), commandLineOptions.getShardIndex(), commandLineOptions.getShardCount());
+		int lastQtl = getFirstQtlOfShard(simulator.getNumberOfQtls(), commandLineOptions.getShardIndex() + 1, commandLineOptions.getShardCount()) - 1;
+		int resumeQtl = resumeCheckpoint == null ? firstQtl : resumeCheckpoint.getLastQtl() + 1;
+		runMetrics = new RunMetrics(lastQtl - resumeQtl + 1, commandLineOptions.getProgressInterval());
+		SimulatedQtlIterator qtls = simulator.iterator(resumeQtl, lastQtl, runMetrics);
+		boolean completed = false;
+		try {
+			initializeFiles(firstQtl, lastQtl - firstQtl + 1);
+			writeCellCountFile(simulator.getCellcountMatrix());
+			long checkpointIntervalNanos = commandLineOptions.getCheckpointInterval() * 1000000000L;
+			long lastCheckpointNanos = System.nanoTime();
+			if(checkpointIntervalNanos > 0){
+				// a checkpoint before the first QTL, so that a run that is stopped early can be resumed as well
+				writeCheckpoint(outfolder, resumeQtl - 1);
+			}
+			while(qtls.hasNext()){
+				SimulatedQtl row = qtls.next();
+				writeRow(row);
+				if(checkpointIntervalNanos > 0 && System.nanoTime() - lastCheckpointNanos >= checkpointIntervalNanos){
+					writeCheckpoint(outfolder, row.getQtlNumber());
+					lastCheckpointNanos = System.nanoTime();
+				}
+				// the row is copied into the output buffers, its arrays can be reused for the next QTLs
+				qtls.recycle(row);
+			}
+			completed = true;
+		}
+		finally{
+			qtls.close();
+			closeFiles(completed);
+		}
+		if(commandLineOptions.getShardCount() > 1){
+			ShardInfo shardInfo = new ShardInfo(commandLineOptions.getShardIndex(), commandLineOptions.getShardCount(),
+					commandLineOptions.getSeed(), firstQtl, lastQtl, simulator.getNumberOfQtls());
+			for (Map.Entry<String, Long> headerSize : backgroundWriter.getHeaderSizes().entrySet()){
+				shardInfo.setHeaderSize(headerSize.getKey(), headerSize.getValue());
+			}
+			shardInfo.write(outfolder);
+		}
+		// the files are complete, there is nothing left to resume
+		Checkpoint.delete(outfolder);
+		runMetrics.writeSummary(outfolder);
+		System.out.printf("Outfiles written to: %s\n",commandLineOptions.getOutfolder());
 	}
 
-	public static void simulateQTLs() throws IOException{		
-		initializeFiles();
+	static int getFirstQtlOfShard(long numberOfQtls, int shardIndex, int shardCount){
+		/*
+		 * @return Number of the first QTL of the shard, or numberOfQtls + 1 for shardIndex == shardCount
+		 */
+		return ((int) (numberOfQtls * shardIndex / shardCount) + 1);
+	}
 
+	private void readResumeCheckpoint(File outfolder) throws IOException{
 		/*
-		 * Simulate expression, genotype and cellcount %. The cellcount % are distributions around the pre-selected means. The expression
-		 * is y = error + (B1 * cellcount) + (B2 * genotype)
+		 * Read the checkpoint of the interrupted run and check that this run has the same options. Without --seed the
+		 * seed of the checkpoint is used
 		 */
-		//int genotypeCoefficientGroups = 3;
-		//int interactionCoefficientGroups = 30;
-		double[] interactionCoefficientGroups = new double[]{5,4,3,2.8,2.6,2.4,2.2,2.0,1.8,1.6,1.4,1.2,1,0.7,0.4,
-				-5,-4,-3,-2.8,-2.6,-2.4,-2.2,-2.0,-1.8,-1.6,-1.4,-1.2,-1,-0.7,-0.4};
-		double[] genotypeCoefficientGroups = new double[]{5,4,3,2.8,2.6,2.4,2.2,2.0,1.8,1.6,1.4,1.2,1,0.7,0.4,
-				-5,-4,-3,-2.8,-2.6,-2.4,-2.2,-2.0,-1.8,-1.6,-1.4,-1.2,-1,-0.7,-0.4};
-		double[] minorAlleleFrequencyGroups = new double[]{0.0001, 0.001, 0.01, 0.05, 0.1, 0.15, 0.2, 0.25, 0.3, 0.4, 0.5};
-		int qtlCounter = 1;
+		resumeCheckpoint = Checkpoint.read(outfolder);
+		if(resumeCheckpoint == null){
+			throw new IllegalArgumentException("Can not resume, there is no "+Checkpoint.FILE_NAME+" in "+outfolder.getPath());
+		}
+		if(commandLineOptions.isSeedGiven() && commandLineOptions.getSeed() != resumeCheckpoint.getSeed()){
+			throw new IllegalArgumentException("Can not resume with --seed "+Long.toString(commandLineOptions.getSeed())+
+					", the checkpoint was written with seed "+Long.toString(resumeCheckpoint.getSeed()));
+		}
+		commandLineOptions.setSeed(resumeCheckpoint.getSeed());
+		String settings = Checkpoint.getSettings(commandLineOptions);
+		if(!settings.equals(resumeCheckpoint.getSettings())){
+			throw new IllegalArgumentException("Can not resume with other options than the checkpoint was written with. Checkpoint: "+
+					resumeCheckpoint.getSettings()+", now: "+settings);
+		}
+		System.out.printf("Resuming after QTL_%d with seed %d\n", resumeCheckpoint.getLastQtl(), resumeCheckpoint.getSeed());
+	}
 
+	private void writeCheckpoint(File outfolder, int lastQtl) throws IOException{
 		/*
-		 * Main part of simulation. Do:
-		 * 1. Simulate celltype percentages. Loop over number of samples
-		 *   2. Loop over cellcount percentages (from command line)
-		 *     3. Make NomralDistribution with mean;SD cellcount;cellcount/10
-		 *     4. Sample from the normaldistribution; if sample < 0; sample = random(0,1)
-		 * 5. Make a celltypeCoefficientDistribution with mean;SD 1;0.5
-		 * 6. Loop over range 0 - <genotypeCoefficientGroups> for the genotypeCoefficient (e.g. -3, 0, 3)             -> j
-		 * 	 7. Loop over range 0 - <interactionCoefficientGroups> for the interactionCoefficient (e.g. -5, 0, 5)     -> y
-		 *     8. Make NormalDistribution biological noise, genotypeCoefficient, interactionCoefficient, 
-		 * 				with mean;SD getNoise();getNoise()/4, j;0.5, y;0.5                                            <- The biological noise distribution is the distribution over the genes (QTL), later is used as mean for distribution over the samples per gene  
-		 *     9. Loop over number of QTLs (from cmd)/(# genotype and interaction coefficients)      				  <- so if 100 QTLs and 3 genotype and interaction coefficients, loop for QTLs 33 times 
-		 *       10. Make NormalDistribution celltypeCoeeficient with mean+SD 1+0.5
-		 *       11. Loop over all the samples
-		 *         12. From the previously made distributions, sample celltypeCoefficient, noise, genotypeCoefficient, interactionCoefficient
-		 *         13. Make NormalDistributiotn with mean;SD noise;abs(noise/6) (over genes)                           <- Distribution is the samples variance per gene
-		 *         14. SimulatedExpression = sample from step 10.
-		 *         15. Loop over the number of celltypes
-		 *           16. Calculate cellcountFactor <- (cellcount from step 4.)/(cellcount from command line)
-		 *           17. SimulatedExpression += (celltypeCoefficient * cellcountFactor) + 
-												(genotypeCoefficient * genotype) + 
-												(interactionCoefficient * genotype * cellcountFactor);
+		 * Hand all buffered rows to the background writer, which writes the checkpoint with the file sizes once these
+		 * rows are in the files. Simulating and writing go on in the meantime, so that checkpoints are cheap
+		 *
+		 * @param lastQtl Number of the last QTL that was written
 		 */
-		Map<String, HashMap<String, Double>> cellcountsPerSample = writeCellCountFile();
-		NormalDistribution celltypeCoefficientDistribution = new NormalDistribution(10, 1);
-		int q = 0;
-		for(double genotypeCoefficientMean : genotypeCoefficientGroups){ 
-			//for (int y = 0; y < interactionCoefficientGroups; y++){
-			for (double interactionCoefficientMean : interactionCoefficientGroups){
-				// make a normal distribution around the given mean distribution so that each gene has a different (altho close to given) mean expression distribution
-				// the SD of this distribution is large as genes can have a large difference in expression levels
-				NormalDistribution noiseDistribution = new NormalDistribution(commandLineOptions.getNoise(), commandLineOptions.getNoise()/4);
-				//NormalDistribution genotypeCoeficientDistribution = new NormalDistribution(-3 + (j*3), 0.3);
-				NormalDistribution genotypeCoeficientDistribution = new NormalDistribution(genotypeCoefficientMean, 0.3);
-				//NormalDistribution interactioncCefficientDistribution = new NormalDistribution(-30+ (y*3), 0.3);
-				NormalDistribution interactioncCefficientDistribution = new NormalDistribution(interactionCoefficientMean, 0.3);
-				for(double minorAlleleFrequency : minorAlleleFrequencyGroups){
-					// Make i number of QTLs
-					for (int i = 0; i < commandLineOptions.getNumberOfQtls()/(genotypeCoefficientGroups.length*interactionCoefficientGroups.length*minorAlleleFrequencyGroups.length)+1; i++){
-						// write the QTL name in first column
-						expressionWriter.write("QTL_"+Integer.toString(qtlCounter));
-						genotypeWriter.write("QTL_"+Integer.toString(qtlCounter));
-						// loop over the number of samples and calculate expression level
-						double averageCelltypeCoefficient = 0;
-						double averageGenotypeCoefficient = 0;
-						infoWriter.write("QTL_"+Integer.toString(qtlCounter));
-						for (int s = 0; s < commandLineOptions.getSampleSize(); s++){
-							double celltypeCoefficient = celltypeCoefficientDistribution.sample();
-							averageCelltypeCoefficient += celltypeCoefficient/commandLineOptions.getSampleSize();
-							double genotypeCoefficient = genotypeCoeficientDistribution.sample();
-							averageGenotypeCoefficient += genotypeCoefficient/commandLineOptions.getSampleSize();
-							double interactionCoefficient = interactioncCefficientDistribution.sample();
-							// Get the expression level for current QTL and current Sample. SD is low as between samples should not be high difference of "base" expression level 
-							// (variance should be mostly in the genotype and interaction coefficient)
-							double noiseSample = noiseDistribution.sample();
-							NormalDistribution noise = new NormalDistribution(noiseSample, Math.sqrt(Math.pow(noiseSample/6.0,2)));
-							double biologicalNoise = noise.sample();
-							double simulatedExpression = biologicalNoise;
-							// genotype randomly 0, 1 or 2, depending on the MAF
-							int genotype = new Random().ints(1, 0, 3).findFirst().getAsInt();
-							for (int c = 0; c <  commandLineOptions.getCellcountPercentages().length; c++){
+		long start = System.nanoTime();
+		flushWriters();
+		backgroundWriter.checkpoint(new Checkpoint(lastQtl, commandLineOptions.getSeed(), Checkpoint.getSettings(commandLineOptions)), outfolder);
+		runMetrics.addCheckpoint(System.nanoTime() - start);
+	}
 
-								String celltypeName = "celltype_"+Integer.toString(c);
-								String sampleName = "sample"+Integer.toString(s);
-								if(c > 0){
-									// only have an interaction effect on the first celltype, to simplify matters
-									interactionCoefficient = new NormalDistribution(0, 0.3).sample();
-								}
-								if(s == 0){
-									infoWriter.write("\t"+Double.toString(interactionCoefficient));
-									expressionPerCelltypeWriterMap.get(celltypeName).write("QTL_"+Integer.toString(qtlCounter));
-								}
+	private void flushWriters() throws IOException{
+		for (MatrixWriter writer : expressionPerCelltypeWriters){
+			writer.flush();
+		}
+		expressionWriter.flush();
+		genotypeWriter.flush();
+		infoWriter.flush();
+	}
 
-								double cellcountFactor = new NormalDistribution(scale(cellcountsPerSample.get(celltypeName).get(sampleName),
-										cellcountsPerSample.get(celltypeName).get("minCellcount"),	
-										cellcountsPerSample.get(celltypeName).get("maxCellcount"), 0, 4), 1).sample();
-								/*	
-						System.out.printf("Simulated expression: %f\ncelltypeCoefficient: %f\ngenotypeCoefficient:%f\ncellcountFactor: %f\ngenotype: %d\ninteractionCoefficient: %f\n"+
-										  "genotype: %d\ncellcountFactor: %f\nsimulatedExpression: %f\n", simulatedExpression,celltypeCoefficient, genotypeCoefficient, cellcountFactor, 
-										  genotype, interactionCoefficient, genotype, cellcountFactor, simulatedExpression);
-						System.out.printf("(coefficientCelltype * cellcountFactor): %f\n(coeficientGenotype * genotype): %f\n(coefficientInteraction * genotype * cellcountFactor): %f\n", 
-								(celltypeCoefficient * cellcountFactor),(genotypeCoefficient * genotype), (interactionCoefficient * genotype * cellcountFactor), 
-								  genotype, interactionCoefficient, genotype, cellcountFactor, simulatedExpression);
-						System.out.println("-------------------------------");
-								 */
-								//simulatedExpression += interactionCoefficient * genotype * cellcountFactor;
-								// write the simulated expression per celltype
-								//expressionPerCelltypeWriterMap.get(celltypeName).write("\t"+Double.toString(biologicalNoise+(celltypeCoefficient * cellcountFactor) + 
-								//																												(genotypeCoefficient * genotype) + 
-								//																												(interactionCoefficient * genotype * cellcountFactor)));
-								double celltypeSpecificExpression = (celltypeCoefficient) +// * cellcountFactor) + 
-										(genotypeCoefficient * genotype) + 
-										(interactionCoefficient * genotype * cellcountFactor);
-								if(celltypeSpecificExpression < 0){
-									celltypeSpecificExpression = 0;
-								}
-								simulatedExpression += celltypeSpecificExpression;
-								expressionPerCelltypeWriterMap.get(celltypeName).write("\t"+Double.toString(celltypeSpecificExpression));
-							}
-							// expression evel cant be lower than 0, if negative give it random number between 0 and 1 (reflects real life higher level of 0-1 genes as well
-							if (simulatedExpression < 0){
-								simulatedExpression = 0 + Math.random();
-							}
-							/*
-						System.out.printf("Simulated expression: %f\n", simulatedExpression);
-						System.out.println("----------------------------------");
-						System.exit(0);*/
-							//simulatedExpression = Math.pow(2, simulatedExpression);
-							expressionWriter.write("\t"+Double.toString(simulatedExpression));
-							genotypeWriter.write("\t"+Integer.toString(genotype));
-						}
-						q++;
-						System.out.printf("%d/%d\n",q, commandLineOptions.getNumberOfQtls());
-						infoWriter.write("\t"+Double.toString(averageCelltypeCoefficient) +
-								"\t"+Double.toString(averageGenotypeCoefficient));
-						infoWriter.newLine();
-						qtlCounter++;
-						expressionWriter.newLine();
-						genotypeWriter.newLine();
-						for(BufferedWriter w : expressionPerCelltypeWriterMap.values()){
-							w.newLine();
-						}
-					}
+	private void closeFiles(boolean completed) throws IOException{
+		/*
+		 * Close every output that was opened, also when simulating or writing failed, so that everything that was written is
+		 * flushed and no file handles are left open. The first error is thrown after all outputs are closed, unless the run
+		 * did not complete: then the error that stopped the run is the one that is reported
+		 *
+		 * @param completed True if all QTLs were written
+		 */
+		List<Closeable> outputs = new ArrayList<Closeable>();
+		outputs.add(expressionWriter);
+		outputs.add(genotypeWriter);
+		outputs.add(infoWriter);
+		if(expressionPerCelltypeWriters != null){
+			outputs.addAll(Arrays.asList(expressionPerCelltypeWriters));
+		}
+		// the background writer goes last, it writes what the outputs flush when they are closed
+		outputs.add(backgroundWriter);
+		Exception firstError = null;
+		for (Closeable output : outputs){
+			if(output == null){
+				continue;
+			}
+			try {
+				output.close();
+			} catch (IOException | RuntimeException e) {
+				if(firstError == null){
+					firstError = e;
 				}
 			}
 		}
-		expressionWriter.close();
-		genotypeWriter.close();
-		infoWriter.close();
-		System.out.printf("Outfiles written to: %s",commandLineOptions.getOutfolder());
+		if(completed && firstError != null){
+			if(firstError instanceof IOException){
+				throw (IOException) firstError;
+			}
+			throw (RuntimeException) firstError;
+		}
+	}
+
+	private void writeRow(SimulatedQtl row) throws IOException{
+		/*
+		 * Write one simulated QTL to the expression, genotype, info and per celltype expression files
+		 */
+		long start = System.nanoTime();
+		long outputWaitBefore = runMetrics.getOutputWaitNanos();
+		writeRow(row, expressionWriter, genotypeWriter, infoWriter, expressionPerCelltypeWriters);
+		// time blocked on a full background writer is I/O, not formatting
+		runMetrics.addFormattingNanos(System.nanoTime() - start - (runMetrics.getOutputWaitNanos() - outputWaitBefore));
+		runMetrics.rowWritten();
+	}
+
+	static void writeRow(SimulatedQtl row, MatrixWriter expressionWriter, MatrixWriter genotypeWriter, TsvMatrixWriter infoWriter,
+			MatrixWriter[] expressionPerCelltypeWriters) throws IOException{
+		String qtlName = row.getQtlName();
+		writeInfoRow(row, infoWriter);
+		for (int c = 0; c < expressionPerCelltypeWriters.length; c++){
+			expressionPerCelltypeWriters[c].writeRow(qtlName, row.getExpressionPerCelltype()[c]);
+		}
+		expressionWriter.writeRow(qtlName, row.getExpression());
+		genotypeWriter.writeRow(qtlName, row.getGenotypes());
+	}
+	public static void writeInfoRow(SimulatedQtl row, TsvMatrixWriter infoWriter) throws IOException{
+		/*
+		 * Line of info.csv: QTL name, interaction coefficient per celltype, average celltype and genotype coefficient
+		 */
+		infoWriter.writeString(row.getQtlName());
+		for (int c = 0; c < row.getInteractionCoefficients().length; c++){
+			infoWriter.writeTab();
+			infoWriter.writeDouble(row.getInteractionCoefficients()[c]);
+		}
+		infoWriter.writeTab();
+		infoWriter.writeDouble(row.getAverageCelltypeCoefficient());
+		infoWriter.writeTab();
+		infoWriter.writeDouble(row.getAverageGenotypeCoefficient());
+		infoWriter.newLine();
 	}
-	public static Map<String, HashMap<String, Double>> writeCellCountFile() throws IOException{
-		File simulatedCellcountFile = new File(commandLineOptions.getOutfolder()+"/simulatedCellcounts.csv");
-		FileOutputStream cellcountStream = new FileOutputStream(simulatedCellcountFile);
-		BufferedWriter cellcountWriter = new BufferedWriter(new OutputStreamWriter(cellcountStream));
+	private void writeCellCountFile(CellcountMatrix cellcountMatrix) throws IOException{
+		/*
+		 * Write the cellcounts through the background writer, compressed with --compress, while the QTLs are simulated.
+		 * The file is closed before the first checkpoint, a resumed run writes it again from the start
+		 */
+		TsvMatrixWriter cellcountWriter = new TsvMatrixWriter(openOutput("simulatedCellcounts.csv", false), commandLineOptions.getPrecision());
+		writeCellcounts(cellcountMatrix, cellcountWriter);
+		cellcountWriter.close();
+	}
+
+	static void writeCellcounts(CellcountMatrix cellcountMatrix, TsvMatrixWriter cellcountWriter) throws IOException{
 		// write headers with celltypes
-		for (int c = 0; c < commandLineOptions.getCellcountPercentages().length; c++){
+		for (int c = 0; c < cellcountMatrix.getNumberOfCelltypes(); c++){
 			// only write header once, before first sample
-			cellcountWriter.write("\tcelltype_"+Integer.toString(c));
+			cellcountWriter.writeString("\tcelltype_"+Integer.toString(c));
 		}
 		cellcountWriter.newLine();
-
-		Map<String, HashMap<String, Double>> cellcountsPerSample = new HashMap<String, HashMap<String, Double>>();
-		for (int s = 0; s < commandLineOptions.getSampleSize(); s++){
-			cellcountWriter.write("sample_"+Integer.toString(s));
-			int c = 0;
-			for (double cellcount : commandLineOptions.getCellcountPercentages()){
-				// this stays the same for every sample, calculate the celltype % per sample now
-				// TODO: normal distribution with cellcount as mean and SD as cellcount/10, should probably be changed to more appropriate
-				NormalDistribution normalDistributionCellcount =  new NormalDistribution(cellcount, cellcount/10);
-				double cellcountOfSample =  normalDistributionCellcount.sample();
-				// cellcount can not be < 0, if < 0 make it 0 + small random number between 0.01 and 0.91
-				if (cellcountOfSample < 0){
-					cellcountOfSample = 0 + Math.random()+0.01;
-				}
-				cellcountWriter.write("\t");
-				cellcountWriter.write(Double.toString(cellcountOfSample));
-				String celltypeName = "celltype_"+Integer.toString(c);
-				String sampleName = "sample"+Integer.toString(s);
-				// check if key value already exists. If not, make the new key entry
-				if(cellcountsPerSample.containsKey(celltypeName)){
-					cellcountsPerSample.get(celltypeName).put(sampleName, cellcountOfSample);
-					// find the min and max cellcount values of cellcounts to use for scaling during simulation
-					if (cellcountOfSample > cellcountsPerSample.get(celltypeName).get("maxCellcount")){
-						cellcountsPerSample.get(celltypeName).put("maxCellcount", cellcountOfSample);
-					}
-					if  (cellcountOfSample < cellcountsPerSample.get(celltypeName).get("minCellcount")){
-						cellcountsPerSample.get(celltypeName).put("minCellcount", cellcountOfSample);
-					}
-				}
-				else{
-					HashMap<String, Double> sampleCellCount = new HashMap<String, Double>();
-					sampleCellCount.put(sampleName, cellcountOfSample);
-					cellcountsPerSample.put(celltypeName, sampleCellCount);
-					// initialize min and max, every iteration check if there is a new min/max
-					cellcountsPerSample.get(celltypeName).put("minCellcount", cellcountOfSample);
-					cellcountsPerSample.get(celltypeName).put("maxCellcount", cellcountOfSample);
-				}
-				c++;
+		for (int s = 0; s < cellcountMatrix.getNumberOfSamples(); s++){
+			cellcountWriter.writeString("sample_"+Integer.toString(s));
+			for (int c = 0; c < cellcountMatrix.getNumberOfCelltypes(); c++){
+				cellcountWriter.writeTab();
+				cellcountWriter.writeDouble(cellcountMatrix.getCellcount(c, s));
 			}
 			cellcountWriter.newLine();
 		}
-		cellcountWriter.close();
-		return(cellcountsPerSample);
 	}
 	public static final double scale(double value, double min, double max, double limitMin, double limitMax){
 		/*
@@ -0,0 +1,153 @@
+package QtlSimulator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public class RunMetrics {
+	private final long totalRows;
+	private final long progressIntervalNanos;
+	private final long startNanos = System.nanoTime();
+	private long lastReportNanos = startNanos;
+	private long rows = 0;
+	private final LongAdder samplingNanos = new LongAdder();
+	private final AtomicLong formattingNanos = new AtomicLong();
+	private final AtomicLong ioNanos = new AtomicLong();
+	private final AtomicLong outputWaitNanos = new AtomicLong();
+	private long checkpoints = 0;
+	private long checkpointNanos = 0;
+	private final Map<String, AtomicLong> bytesPerFile = new LinkedHashMap<String, AtomicLong>();
+	private long peakHeapBytes = 0;
+	public RunMetrics(long totalRows, int progressIntervalSeconds){
+		/*
+		 * Throughput and timing of a simulation run. Rows are counted on the thread that writes them, sampling time is added
+		 * by the simulation threads and I/O time by the background writer thread. Progress is printed at most once per interval
+		 *
+		 * @param totalRows Number of QTL rows that will be written, for the progress percentage
+		 *
+		 * @param progressIntervalSeconds Seconds between progress reports, 0 to not report progress
+		 */
+		this.totalRows = totalRows;
+		this.progressIntervalNanos = progressIntervalSeconds * 1000000000L;
+	}
+
+	public synchronized AtomicLong registerFile(String fileName){
+		/*
+		 * @return Counter for the (uncompressed) bytes written to the file
+		 */
+		AtomicLong counter = new AtomicLong();
+		bytesPerFile.put(fileName, counter);
+		return (counter);
+	}
+	public void addSamplingNanos(long nanos){
+		samplingNanos.add(nanos);
+	}
+	public void addFormattingNanos(long nanos){
+		formattingNanos.addAndGet(nanos);
+	}
+	public void addIoNanos(long nanos){
+		ioNanos.addAndGet(nanos);
+	}
+	public void addOutputWaitNanos(long nanos){
+		outputWaitNanos.addAndGet(nanos);
+	}
+	public void addCheckpoint(long nanos){
+		/*
+		 * Count a checkpoint and the time the simulation was stopped for it. Only called from the thread that writes rows
+		 */
+		checkpoints++;
+		checkpointNanos += nanos;
+	}
+	public long getOutputWaitNanos(){
+		return (outputWaitNanos.get());
+	}
+
+	public void rowWritten(){
+		/*
+		 * Count a written row and print progress when the interval has passed. Only called from the thread that writes rows
+		 */
+		rows++;
+		if(progressIntervalNanos > 0){
+			long now = System.nanoTime();
+			if(now - lastReportNanos >= progressIntervalNanos){
+				lastReportNanos = now;
+				printProgress(now);
+			}
+		}
+	}
+
+	private void printProgress(long now){
+		double elapsedSeconds = (now - startNanos) / 1e9;
+		System.out.printf(Locale.ROOT, "%d/%d QTLs (%.1f%%), %.0f rows/s, %.1f MB written, heap %.0f MB\n", rows, totalRows,
+				100.0 * rows / totalRows, rows / elapsedSeconds, getTotalBytes() / 1e6, sampleHeap() / 1e6);
+	}
+
+	private long getTotalBytes(){
+		long totalBytes = 0;
+		synchronized (this) {
+			for (AtomicLong counter : bytesPerFile.values()){
+				totalBytes += counter.get();
+			}
+		}
+		return (totalBytes);
+	}
+
+	private long sampleHeap(){
+		Runtime runtime = Runtime.getRuntime();
+		long usedHeapBytes = runtime.totalMemory() - runtime.freeMemory();
+		peakHeapBytes = Math.max(peakHeapBytes, usedHeapBytes);
+		return (usedHeapBytes);
+	}
+
+	public void writeSummary(File outfolder) throws IOException{
+		/*
+		 * Print a final summary and write it as JSON to <outfolder>/run_metrics.json
+		 */
+		long now = System.nanoTime();
+		sampleHeap();
+		double elapsedSeconds = (now - startNanos) / 1e9;
+		System.out.printf(Locale.ROOT, "%d QTLs in %.1f s (%.0f rows/s), %.1f MB written\n", rows, elapsedSeconds, rows / elapsedSeconds, getTotalBytes() / 1e6);
+
+		StringBuilder json = new StringBuilder();
+		json.append("{\n");
+		json.append(String.format(Locale.ROOT, "  \"rows\": %d,\n", rows));
+		json.append(String.format(Locale.ROOT, "  \"elapsedSeconds\": %.3f,\n", elapsedSeconds));
+		json.append(String.format(Locale.ROOT, "  \"rowsPerSecond\": %.1f,\n", rows / elapsedSeconds));
+		json.append(String.format(Locale.ROOT, "  \"bytesPerSecond\": %.1f,\n", getTotalBytes() / elapsedSeconds));
+		// sampling time is summed over all simulation threads, so it can be larger than the elapsed time
+		json.append(String.format(Locale.ROOT, "  \"samplingSeconds\": %.3f,\n", samplingNanos.sum() / 1e9));
+		json.append(String.format(Locale.ROOT, "  \"formattingSeconds\": %.3f,\n", formattingNanos.get() / 1e9));
+		json.append(String.format(Locale.ROOT, "  \"ioSeconds\": %.3f,\n", ioNanos.get() / 1e9));
+		json.append(String.format(Locale.ROOT, "  \"outputWaitSeconds\": %.3f,\n", outputWaitNanos.get() / 1e9));
+		json.append(String.format(Locale.ROOT, "  \"checkpoints\": %d,\n", checkpoints));
+		json.append(String.format(Locale.ROOT, "  \"checkpointSeconds\": %.3f,\n", checkpointNanos / 1e9));
+		json.append(String.format(Locale.ROOT, "  \"peakHeapBytes\": %d,\n", peakHeapBytes));
+		json.append(String.format(Locale.ROOT, "  \"maxHeapBytes\": %d,\n", Runtime.getRuntime().maxMemory()));
+		json.append("  \"files\": {");
+		String separator = "\n";
+		synchronized (this) {
+			for (Map.Entry<String, AtomicLong> file : bytesPerFile.entrySet()){
+				json.append(separator);
+				json.append(String.format(Locale.ROOT, "    \"%s\": {\"bytesWritten\": %d, \"bytesOnDisk\": %d}",
+						file.getKey(), file.getValue().get(), new File(outfolder, file.getKey()).length()));
+				separator = ",\n";
+			}
+		}
+		json.append("\n  }\n}\n");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(new File(outfolder, "run_metrics.json")), StandardCharsets.UTF_8);
+		try {
+			writer.write(json.toString());
+		}
+		finally{
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package QtlSimulator;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ShardInfo {
+	/*
+	 * Description of a finished shard, written to <outfolder>/shard.tsv as tab separated key-value lines:
+	 *
+	 *   shardIndex  <0-based index of the shard>
+	 *   shardCount  <number of shards>
+	 *   seed        <master seed>
+	 *   firstQtl    <number of the first QTL of the shard>
+	 *   lastQtl     <number of the last QTL of the shard>
+	 *   totalQtls   <number of QTLs of all shards together>
+	 *   header      <file name> <size of the header in bytes>   (one line per output file)
+	 *
+	 * The header of a compressed file is a gzip member or zstd frame of its own, so the merger can append the rest of
+	 * the file without decompressing it
+	 */
+	public static final String FILE_NAME = "shard.tsv";
+	private final int shardIndex;
+	private final int shardCount;
+	private final long seed;
+	private final int firstQtl;
+	private final int lastQtl;
+	private final int totalQtls;
+	private final Map<String, Long> headerSizes = new LinkedHashMap<String, Long>();
+	public ShardInfo(int shardIndex, int shardCount, long seed, int firstQtl, int lastQtl, int totalQtls){
+		/*
+		 * @param firstQtl Number of the first QTL of the shard
+		 *
+		 * @param lastQtl Number of the last QTL of the shard, firstQtl - 1 for a shard without QTLs
+		 *
+		 * @param totalQtls Number of QTLs of all shards together
+		 */
+		this.shardIndex = shardIndex;
+		this.shardCount = shardCount;
+		this.seed = seed;
+		this.firstQtl = firstQtl;
+		this.lastQtl = lastQtl;
+		this.totalQtls = totalQtls;
+	}
+
+	public void write(File outfolder) throws IOException{
+		StringBuilder shardInfo = new StringBuilder();
+		shardInfo.append("shardIndex\t").append(shardIndex).append('\n');
+		shardInfo.append("shardCount\t").append(shardCount).append('\n');
+		shardInfo.append("seed\t").append(seed).append('\n');
+		shardInfo.append("firstQtl\t").append(firstQtl).append('\n');
+		shardInfo.append("lastQtl\t").append(lastQtl).append('\n');
+		shardInfo.append("totalQtls\t").append(totalQtls).append('\n');
+		for (Map.Entry<String, Long> header : headerSizes.entrySet()){
+			shardInfo.append("header\t").append(header.getKey()).append('\t').append(header.getValue()).append('\n');
+		}
+		Writer writer = new OutputStreamWriter(new FileOutputStream(new File(outfolder, FILE_NAME)), StandardCharsets.UTF_8);
+		try {
+			writer.write(shardInfo.toString());
+		}
+		finally{
+			writer.close();
+		}
+	}
+
+	public static ShardInfo read(File outfolder) throws IOException{
+		/*
+		 * @return The shard info of the outfolder
+		 */
+		File shardInfoFile = new File(outfolder, FILE_NAME);
+		if(!shardInfoFile.exists()){
+			throw new IOException(outfolder.getPath()+" has no "+FILE_NAME+", only outfolders of finished runs with --shard-count can be merged");
+		}
+		Map<String, String> values = new LinkedHashMap<String, String>();
+		Map<String, Long> headerSizes = new LinkedHashMap<String, Long>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(shardInfoFile), StandardCharsets.UTF_8));
+		try {
+			String line;
+			while((line = reader.readLine()) != null){
+				String[] fields = line.split("\t");
+				if(fields[0].equals("header")){
+					headerSizes.put(fields[1], Long.parseLong(fields[2]));
+				}
+				else{
+					values.put(fields[0], fields[1]);
+				}
+			}
+		}
+		finally{
+			reader.close();
+		}
+		if(!values.containsKey("shardIndex") || !values.containsKey("shardCount") || !values.containsKey("seed") ||
+				!values.containsKey("firstQtl") || !values.containsKey("lastQtl") || !values.containsKey("totalQtls")){
+			throw new IOException(shardInfoFile.getPath()+" is not a complete shard info");
+		}
+		ShardInfo shardInfo = new ShardInfo(Integer.parseInt(values.get("shardIndex")), Integer.parseInt(values.get("shardCount")),
+				Long.parseLong(values.get("seed")), Integer.parseInt(values.get("firstQtl")), Integer.parseInt(values.get("lastQtl")),
+				Integer.parseInt(values.get("totalQtls")));
+		shardInfo.headerSizes.putAll(headerSizes);
+		return (shardInfo);
+	}
+
+	public int getShardIndex(){
+		return (shardIndex);
+	}
+	public int getShardCount(){
+		return (shardCount);
+	}
+	public long getSeed(){
+		return (seed);
+	}
+	public int getFirstQtl(){
+		return (firstQtl);
+	}
+	public int getLastQtl(){
+		return (lastQtl);
+	}
+	public int getTotalQtls(){
+		return (totalQtls);
+	}
+	public void setHeaderSize(String fileName, long headerSize){
+		headerSizes.put(fileName, headerSize);
+	}
+	public long getHeaderSize(String fileName) throws IOException{
+		Long headerSize = headerSizes.get(fileName);
+		if(headerSize == null){
+			throw new IOException("Shard "+Integer.toString(shardIndex)+" has no header size for "+fileName);
+		}
+		return (headerSize);
+	}
+}
@@ -0,0 +1,281 @@
+package QtlSimulator;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import io.airlift.compress.zstd.ZstdInputStream;
+
+public class ShardMerger {
+	private static final int COPY_BUFFER_SIZE = 1 << 16;
+	public static void main(String[] args) throws ParseException, IOException {
+		/*
+		 * Merge the outfolders of shards into the standard output files, e.g.
+		 * `java -jar QtlSimulator.jar merge -o merged shard_0 shard_1 shard_2`
+		 *
+		 * @param args Command line arguments after `merge`
+		 */
+		Options options = new Options();
+		Option outfolderOption = Option.builder("o").required(true).hasArg().longOpt("outfolder")
+				.desc("Outfolder to write the merged files to").build();
+		options.addOption(outfolderOption);
+		CommandLineParser cmdLineParser = new DefaultParser();
+		CommandLine cmdLine = cmdLineParser.parse(options, args);
+		if(cmdLine.getArgs().length == 0){
+			new HelpFormatter().printHelp("QtlSimulator merge -o <outfolder> <shard outfolder>...", options);
+			throw new IllegalArgumentException("No shard outfolders given to merge");
+		}
+		File[] shardFolders = new File[cmdLine.getArgs().length];
+		for (int i = 0; i < shardFolders.length; i++){
+			shardFolders[i] = new File(cmdLine.getArgs()[i]);
+		}
+		merge(shardFolders, new File(cmdLine.getOptionValue("outfolder")));
+	}
+
+	public static void merge(File[] shardFolders, File outfolder) throws IOException{
+		/*
+		 * Concatenate the output files of the shards, in the order given, into outfolder. Shards have to be finished, have
+		 * the same seed and be given in shard index order, and all shards of the run have to be given. Files are copied as bytes: the header of csv files is only kept
+		 * from the first shard, binary matrices get a new header with the total number of rows, compressed files get the
+		 * shards after their header member or frame appended, which decompressors read as one continuous stream.
+		 *
+		 * @param shardFolders Outfolders of the shards
+		 *
+		 * @param outfolder Outfolder to write the merged files to
+		 */
+		ShardInfo[] shardInfos = new ShardInfo[shardFolders.length];
+		for (int i = 0; i < shardFolders.length; i++){
+			if(new File(shardFolders[i], Checkpoint.FILE_NAME).exists()){
+				throw new IOException("Shard "+shardFolders[i].getPath()+" has a "+Checkpoint.FILE_NAME+", it did not finish. Finish it with --resume before merging");
+			}
+			shardInfos[i] = ShardInfo.read(shardFolders[i]);
+			if(shardInfos[i].getSeed() != shardInfos[0].getSeed()){
+				throw new IOException("Shard "+shardFolders[i].getPath()+" was simulated with seed "+Long.toString(shardInfos[i].getSeed())+
+						", the first shard with seed "+Long.toString(shardInfos[0].getSeed())+". All shards need the same --seed");
+			}
+			if(shardInfos[i].getShardCount() != shardFolders.length){
+				throw new IOException("Shard "+shardFolders[i].getPath()+" is one of "+Integer.toString(shardInfos[i].getShardCount())+
+						" shards, but "+Integer.toString(shardFolders.length)+" shards are given. Give all shards to merge them");
+			}
+			if(shardInfos[i].getShardIndex() != i){
+				throw new IOException("Shard "+shardFolders[i].getPath()+" has shard index "+Integer.toString(shardInfos[i].getShardIndex())+
+						", expected "+Integer.toString(i)+". Give the shards in shard index order");
+			}
+			int expectedFirstQtl = i == 0 ? 1 : shardInfos[i-1].getLastQtl() + 1;
+			if(shardInfos[i].getFirstQtl() != expectedFirstQtl){
+				throw new IOException("Shard "+shardFolders[i].getPath()+" starts at QTL_"+Integer.toString(shardInfos[i].getFirstQtl())+
+						", expected QTL_"+Integer.toString(expectedFirstQtl)+". Give the shards in shard index order");
+			}
+		}
+		ShardInfo lastShard = shardInfos[shardInfos.length - 1];
+		if(lastShard.getLastQtl() != lastShard.getTotalQtls()){
+			throw new IOException("The shards end at QTL_"+Integer.toString(lastShard.getLastQtl())+", but there are "+
+					Integer.toString(lastShard.getTotalQtls())+" QTLs. Give all shards to merge them");
+		}
+		outfolder.mkdirs();
+		String[] fileNames = shardFolders[0].list();
+		if(fileNames == null){
+			throw new IOException("Can not list files of shard outfolder "+shardFolders[0].getPath());
+		}
+		Arrays.sort(fileNames);
+		for (String fileName : fileNames){
+			File[] shardFiles = new File[shardFolders.length];
+			for (int i = 0; i < shardFolders.length; i++){
+				shardFiles[i] = new File(shardFolders[i], fileName);
+				if(!shardFiles[i].exists()){
+					throw new IOException("Shard "+shardFolders[i].getPath()+" has no "+fileName);
+				}
+			}
+			File mergedFile = new File(outfolder, fileName);
+			if(fileName.startsWith("simulatedCellcounts.csv")){
+				// all shards use the same cellcounts, keep one copy
+				for (File shardFile : shardFiles){
+					if(!sameContents(shardFile, shardFiles[0])){
+						throw new IOException("Cellcounts of "+shardFile.getPath()+" differ from the first shard, were the shards simulated with the same options?");
+					}
+				}
+				copyFrom(shardFiles[0], 0, mergedFile, false);
+			}
+			else if(fileName.endsWith(".bin")){
+				mergeBinaryMatrices(shardFiles, mergedFile);
+			}
+			else if(fileName.endsWith(".csv")){
+				checkFirstRows(shardFiles, shardInfos, fileName);
+				copyFrom(shardFiles[0], 0, mergedFile, false);
+				for (int i = 1; i < shardFiles.length; i++){
+					copyFrom(shardFiles[i], lengthOfFirstLine(shardFiles[i]), mergedFile, true);
+				}
+			}
+			else if(fileName.endsWith(".csv.gz") || fileName.endsWith(".csv.zst")){
+				checkFirstRows(shardFiles, shardInfos, fileName);
+				// the header is a gzip member or zstd frame of its own, the rest is appended as is
+				copyFrom(shardFiles[0], 0, mergedFile, false);
+				for (int i = 1; i < shardFiles.length; i++){
+					copyFrom(shardFiles[i], shardInfos[i].getHeaderSize(fileName), mergedFile, true);
+				}
+			}
+			else{
+				continue;
+			}
+			System.out.printf("Merged %s\n", mergedFile.getPath());
+		}
+	}
+
+	private static void mergeBinaryMatrices(File[] shardFiles, File mergedFile) throws IOException{
+		/*
+		 * Write a header with the summed number of rows and append the rows of every shard
+		 */
+		BinaryMatrixHeader[] headers = new BinaryMatrixHeader[shardFiles.length];
+		long numberOfRows = 0;
+		for (int i = 0; i < shardFiles.length; i++){
+			FileInputStream stream = new FileInputStream(shardFiles[i]);
+			try {
+				headers[i] = BinaryMatrixHeader.read(stream.getChannel());
+			}
+			finally{
+				stream.close();
+			}
+			if(headers[i].getFirstRowNumber() != headers[0].getFirstRowNumber() + numberOfRows){
+				throw new IOException(shardFiles[i].getPath()+" starts at row "+Long.toString(headers[i].getFirstRowNumber())+
+						", expected "+Long.toString(headers[0].getFirstRowNumber() + numberOfRows)+". Give the shards in shard index order");
+			}
+			numberOfRows += headers[i].getNumberOfRows();
+		}
+		BinaryMatrixHeader mergedHeader = new BinaryMatrixHeader(headers[0].getMatrixType(), numberOfRows,
+				headers[0].getFirstRowNumber(), headers[0].getRowNamePrefix(), headers[0].getColumnNames());
+		FileChannel mergedChannel = new FileOutputStream(mergedFile).getChannel();
+		try {
+			ByteBuffer header = mergedHeader.toBytes();
+			while(header.hasRemaining()){
+				mergedChannel.write(header);
+			}
+		}
+		finally{
+			mergedChannel.close();
+		}
+		for (int i = 0; i < shardFiles.length; i++){
+			copyFrom(shardFiles[i], headers[i].getDataOffset(), mergedFile, true);
+		}
+	}
+
+	private static void checkFirstRows(File[] shardFiles, ShardInfo[] shardInfos, String fileName) throws IOException{
+		/*
+		 * Check that the first row of every shard file is the first QTL of its shard, so that files of shards that are
+		 * given out of order or mixed up between outfolders are not merged
+		 */
+		for (int i = 0; i < shardFiles.length; i++){
+			String firstRowName = getFirstRowName(shardFiles[i], fileName);
+			String expectedRowName = shardInfos[i].getFirstQtl() > shardInfos[i].getLastQtl() ? null : "QTL_"+Integer.toString(shardInfos[i].getFirstQtl());
+			if(firstRowName == null ? expectedRowName != null : !firstRowName.equals(expectedRowName)){
+				throw new IOException(shardFiles[i].getPath()+" starts at "+firstRowName+", expected "+expectedRowName);
+			}
+		}
+	}
+
+	private static String getFirstRowName(File file, String fileName) throws IOException{
+		/*
+		 * @return Name of the row after the header line, or null if the file has no rows
+		 */
+		InputStream in = new FileInputStream(file);
+		if(fileName.endsWith(".gz")){
+			in = new GZIPInputStream(in, COPY_BUFFER_SIZE);
+		}
+		else if(fileName.endsWith(".zst")){
+			in = new ZstdInputStream(in);
+		}
+		in = new BufferedInputStream(in, COPY_BUFFER_SIZE);
+		try {
+			int b;
+			while((b = in.read()) != -1 && b != '\n'){
+				// skip the header line
+			}
+			StringBuilder rowName = new StringBuilder();
+			while((b = in.read()) != -1 && b != '\t' && b != '\n'){
+				rowName.append((char) b);
+			}
+			return (rowName.length() == 0 ? null : rowName.toString());
+		}
+		finally{
+			in.close();
+		}
+	}
+
+	private static boolean sameContents(File file1, File file2) throws IOException{
+		if(file1.length() != file2.length()){
+			return (false);
+		}
+		InputStream in1 = new BufferedInputStream(new FileInputStream(file1), COPY_BUFFER_SIZE);
+		InputStream in2 = new BufferedInputStream(new FileInputStream(file2), COPY_BUFFER_SIZE);
+		try {
+			int b;
+			while((b = in1.read()) != -1){
+				if(b != in2.read()){
+					return (false);
+				}
+			}
+			return (true);
+		}
+		finally{
+			in1.close();
+			in2.close();
+		}
+	}
+
+	private static long lengthOfFirstLine(File file) throws IOException{
+		/*
+		 * @return Number of bytes up to and including the first newline
+		 */
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[COPY_BUFFER_SIZE];
+			long offset = 0;
+			int length;
+			while((length = in.read(buffer)) > 0){
+				for (int i = 0; i < length; i++){
+					if(buffer[i] == '\n'){
+						return (offset + i + 1);
+					}
+				}
+				offset += length;
+			}
+			return (offset);
+		}
+		finally{
+			in.close();
+		}
+	}
+
+	private static void copyFrom(File source, long offset, File target, boolean append) throws IOException{
+		/*
+		 * Copy source from offset to the end to target, without reading it into the JVM where the OS supports it
+		 */
+		FileChannel sourceChannel = new FileInputStream(source).getChannel();
+		FileChannel targetChannel = new FileOutputStream(target, append).getChannel();
+		try {
+			long position = offset;
+			long size = sourceChannel.size();
+			while(position < size){
+				position += sourceChannel.transferTo(position, size - position, targetChannel);
+			}
+		}
+		finally{
+			sourceChannel.close();
+			targetChannel.close();
+		}
+	}
+}
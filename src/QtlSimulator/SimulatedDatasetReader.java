@@ -0,0 +1,77 @@
+package QtlSimulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SimulatedDatasetReader implements AutoCloseable {
+	private final MappedBinaryMatrix expression;
+	private final MappedBinaryMatrix genotypes;
+	private final MappedBinaryMatrix[] expressionPerCelltype;
+	public SimulatedDatasetReader(File outfolder) throws IOException{
+		/*
+		 * Reads a dataset that was simulated with --format binary. All matrices are memory mapped, so rows are
+		 * read on demand without parsing the files
+		 *
+		 * @param outfolder The outfolder of the simulation
+		 */
+		int numberOfCelltypes = 0;
+		while(new File(outfolder, "simulatedExpression_Celltype_"+Integer.toString(numberOfCelltypes)+".bin").exists()){
+			numberOfCelltypes++;
+		}
+		expressionPerCelltype = new MappedBinaryMatrix[numberOfCelltypes];
+		// when a matrix can not be opened, the matrices that were already opened are closed again
+		List<MappedBinaryMatrix> opened = new ArrayList<MappedBinaryMatrix>();
+		try {
+			expression = open(opened, new File(outfolder, "simulatedExpression.bin"));
+			genotypes = open(opened, new File(outfolder, "simulatedGenotypes.bin"));
+			for (int c = 0; c < numberOfCelltypes; c++){
+				expressionPerCelltype[c] = open(opened, new File(outfolder, "simulatedExpression_Celltype_"+Integer.toString(c)+".bin"));
+			}
+		} catch (IOException | RuntimeException e) {
+			for (MappedBinaryMatrix matrix : opened){
+				try {
+					matrix.close();
+				} catch (IOException closeError) {
+					e.addSuppressed(closeError);
+				}
+			}
+			throw e;
+		}
+	}
+
+	private static MappedBinaryMatrix open(List<MappedBinaryMatrix> opened, File matrixFile) throws IOException{
+		MappedBinaryMatrix matrix = new MappedBinaryMatrix(matrixFile);
+		opened.add(matrix);
+		return (matrix);
+	}
+	public MappedBinaryMatrix getExpression(){
+		return (expression);
+	}
+	public MappedBinaryMatrix getGenotypes(){
+		return (genotypes);
+	}
+	public MappedBinaryMatrix getExpressionOfCelltype(int celltype){
+		return (expressionPerCelltype[celltype]);
+	}
+	public int getNumberOfCelltypes(){
+		return (expressionPerCelltype.length);
+	}
+	public long getNumberOfQtls(){
+		return (expression.getNumberOfRows());
+	}
+	public String[] getSampleNames(){
+		return (expression.getColumnNames());
+	}
+	public String getQtlName(long qtl){
+		return (expression.getRowName(qtl));
+	}
+	public void close() throws IOException{
+		expression.close();
+		genotypes.close();
+		for (MappedBinaryMatrix matrix : expressionPerCelltype){
+			matrix.close();
+		}
+	}
+}
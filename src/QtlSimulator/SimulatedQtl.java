@@ -0,0 +1,85 @@
+package QtlSimulator;
+
+public class SimulatedQtl {
+	private int qtlNumber;
+	private double genotypeCoefficientMean;
+	private double interactionCoefficientMean;
+	private double minorAlleleFrequency;
+	private final double[] expression;
+	private final byte[] genotypes;
+	private final double[][] expressionPerCelltype;
+	private final double[] interactionCoefficients;
+	private double averageCelltypeCoefficient;
+	private double averageGenotypeCoefficient;
+	public SimulatedQtl(int qtlNumber, int numberOfSamples, int numberOfCelltypes,
+			double genotypeCoefficientMean, double interactionCoefficientMean, double minorAlleleFrequency){
+		/*
+		 * All simulated values of one QTL, i.e. one row in each of the output files
+		 *
+		 * @param qtlNumber The number used in the QTL name, e.g. 1 for QTL_1
+		 *
+		 * @param numberOfSamples Number of samples (columns) in the row
+		 *
+		 * @param numberOfCelltypes Number of celltypes to hold expression for
+		 *
+		 * @param genotypeCoefficientMean Mean of the genotype coefficient group of the QTL
+		 *
+		 * @param interactionCoefficientMean Mean of the interaction coefficient group of the QTL
+		 *
+		 * @param minorAlleleFrequency MAF group the genotypes of the QTL are drawn with
+		 */
+		setQtl(qtlNumber, genotypeCoefficientMean, interactionCoefficientMean, minorAlleleFrequency);
+		this.expression = new double[numberOfSamples];
+		this.genotypes = new byte[numberOfSamples];
+		this.expressionPerCelltype = new double[numberOfCelltypes][numberOfSamples];
+		this.interactionCoefficients = new double[numberOfCelltypes];
+	}
+	void setQtl(int qtlNumber, double genotypeCoefficientMean, double interactionCoefficientMean, double minorAlleleFrequency){
+		/*
+		 * Reuse the arrays of this object for another QTL, all values are overwritten by QtlRowSimulator
+		 */
+		this.qtlNumber = qtlNumber;
+		this.genotypeCoefficientMean = genotypeCoefficientMean;
+		this.interactionCoefficientMean = interactionCoefficientMean;
+		this.minorAlleleFrequency = minorAlleleFrequency;
+	}
+	public int getQtlNumber(){
+		return (qtlNumber);
+	}
+	public String getQtlName(){
+		return ("QTL_"+Integer.toString(qtlNumber));
+	}
+	public double getGenotypeCoefficientMean(){
+		return (genotypeCoefficientMean);
+	}
+	public double getInteractionCoefficientMean(){
+		return (interactionCoefficientMean);
+	}
+	public double getMinorAlleleFrequency(){
+		return (minorAlleleFrequency);
+	}
+	public double[] getExpression(){
+		return (expression);
+	}
+	public byte[] getGenotypes(){
+		return (genotypes);
+	}
+	public double[][] getExpressionPerCelltype(){
+		return (expressionPerCelltype);
+	}
+	public double[] getInteractionCoefficients(){
+		return (interactionCoefficients);
+	}
+	public double getAverageCelltypeCoefficient(){
+		return (averageCelltypeCoefficient);
+	}
+	public double getAverageGenotypeCoefficient(){
+		return (averageGenotypeCoefficient);
+	}
+	public void setAverageCelltypeCoefficient(double averageCelltypeCoefficient){
+		this.averageCelltypeCoefficient = averageCelltypeCoefficient;
+	}
+	public void setAverageGenotypeCoefficient(double averageGenotypeCoefficient){
+		this.averageGenotypeCoefficient = averageGenotypeCoefficient;
+	}
+}
@@ -0,0 +1,164 @@
+package QtlSimulator;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+public class SimulatedQtlIterator implements Iterator<SimulatedQtl>, AutoCloseable {
+	private final QtlRowSimulator rowSimulator;
+	private final int threads;
+	private final int chunkSize;
+	private final int maxChunksInFlight;
+	private final BlockingQueue<SimulatedQtl> recycledRows;
+	private final RunMetrics runMetrics;
+	private final int lastQtl;
+	private int nextQtl;
+	private int nextChunkStart;
+	private final ExecutorService executor;
+	private final Deque<Future<List<SimulatedQtl>>> inFlight = new ArrayDeque<Future<List<SimulatedQtl>>>();
+	private Iterator<SimulatedQtl> currentChunk = Collections.<SimulatedQtl>emptyList().iterator();
+	SimulatedQtlIterator(QtlRowSimulator rowSimulator, int firstQtl, int lastQtl, int threads, int chunkSize, int maxChunksInFlight,
+			RunMetrics runMetrics){
+		/*
+		 * Lazily simulates QTLs firstQtl - lastQtl (inclusive) and returns them in QTL number order. With more than one
+		 * thread chunks of QTLs are simulated ahead on a thread pool, at most maxChunksInFlight chunks, so memory use does not
+		 * grow with the number of QTLs. Because every QTL has its own random stream the QTLs are the same for any number
+		 * of threads. Close the iterator when it is not read to the end, to stop the simulation threads.
+		 * Rows that are given back with recycle() are overwritten with later QTLs instead of allocating new rows.
+		 *
+		 * @param rowSimulator Simulator for single QTLs
+		 *
+		 * @param firstQtl 1-based number of the first QTL to simulate
+		 *
+		 * @param lastQtl 1-based number of the last QTL to simulate
+		 *
+		 * @param threads Number of threads to simulate with
+		 *
+		 * @param chunkSize Number of consecutive QTLs simulated in one task
+		 *
+		 * @param maxChunksInFlight Maximum number of chunks simulated ahead of the consumer
+		 *
+		 * @param runMetrics Metrics to add the time spent simulating to, or null
+		 */
+		this.rowSimulator = rowSimulator;
+		this.threads = threads;
+		this.chunkSize = chunkSize;
+		this.maxChunksInFlight = maxChunksInFlight;
+		// rows are recycled up to what can be in flight, plus the chunk that is being read
+		this.recycledRows = new ArrayBlockingQueue<SimulatedQtl>((maxChunksInFlight + 1) * chunkSize);
+		this.runMetrics = runMetrics;
+		this.lastQtl = lastQtl;
+		this.nextQtl = firstQtl;
+		this.nextChunkStart = firstQtl;
+		if(threads > 1 && firstQtl <= lastQtl){
+			executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				public Thread newThread(Runnable runnable){
+					// daemon threads, so that an iterator that is not closed does not keep the JVM running
+					Thread thread = new Thread(runnable, "QtlSimulator-simulation");
+					thread.setDaemon(true);
+					return (thread);
+				}
+			});
+		}
+		else{
+			executor = null;
+		}
+	}
+
+	public boolean hasNext(){
+		return (nextQtl <= lastQtl);
+	}
+
+	public SimulatedQtl next(){
+		if(!hasNext()){
+			throw new NoSuchElementException("All QTLs up to QTL_"+Integer.toString(lastQtl)+" are simulated");
+		}
+		nextQtl++;
+		if(executor == null){
+			return (simulateRow(nextQtl - 1));
+		}
+		if(!currentChunk.hasNext()){
+			while(nextChunkStart <= lastQtl && inFlight.size() < maxChunksInFlight){
+				inFlight.add(executor.submit(simulateChunk(nextChunkStart, Math.min(lastQtl, nextChunkStart+chunkSize-1))));
+				nextChunkStart += chunkSize;
+			}
+			currentChunk = waitForChunk(inFlight.poll()).iterator();
+		}
+		SimulatedQtl qtl = currentChunk.next();
+		if(!hasNext()){
+			close();
+		}
+		return (qtl);
+	}
+
+	public void recycle(SimulatedQtl qtl){
+		/*
+		 * Give back a row that the caller no longer uses, so that its arrays can be reused for a later QTL. The row
+		 * must not be read after this. Rows that are not recycled are garbage collected as usual
+		 */
+		recycledRows.offer(qtl);
+	}
+
+	public void remove(){
+		throw new UnsupportedOperationException("Simulated QTLs can not be removed");
+	}
+
+	public void close(){
+		/*
+		 * Stop the simulation threads. QTLs that are simulated ahead are discarded
+		 */
+		if(executor != null){
+			executor.shutdownNow();
+		}
+	}
+
+	private Callable<List<SimulatedQtl>> simulateChunk(final int firstQtl, final int lastQtl){
+		return new Callable<List<SimulatedQtl>>() {
+			public List<SimulatedQtl> call(){
+				List<SimulatedQtl> rows = new ArrayList<SimulatedQtl>(lastQtl-firstQtl+1);
+				for(int q = firstQtl; q <= lastQtl; q++){
+					rows.add(simulateRow(q));
+				}
+				return (rows);
+			}
+		};
+	}
+
+	private SimulatedQtl simulateRow(int qtlNumber){
+		if(runMetrics == null){
+			return (rowSimulator.simulate(qtlNumber, recycledRows.poll()));
+		}
+		long start = System.nanoTime();
+		SimulatedQtl row = rowSimulator.simulate(qtlNumber, recycledRows.poll());
+		runMetrics.addSamplingNanos(System.nanoTime() - start);
+		return (row);
+	}
+
+	private List<SimulatedQtl> waitForChunk(Future<List<SimulatedQtl>> chunk){
+		try {
+			return (chunk.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			close();
+			throw new IllegalStateException("Interrupted while waiting for simulated QTLs", e);
+		} catch (ExecutionException e) {
+			close();
+			if(e.getCause() instanceof RuntimeException){
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+}
@@ -0,0 +1,208 @@
+package QtlSimulator;
+
+import java.util.Random;
+
+public final class SimulationConfig {
+	private static final double[] DEFAULT_COEFFICIENT_GROUPS = new double[]{5,4,3,2.8,2.6,2.4,2.2,2.0,1.8,1.6,1.4,1.2,1,0.7,0.4,
+			-5,-4,-3,-2.8,-2.6,-2.4,-2.2,-2.0,-1.8,-1.6,-1.4,-1.2,-1,-0.7,-0.4};
+	private static final double[] DEFAULT_MINOR_ALLELE_FREQUENCY_GROUPS = new double[]{0.0001, 0.001, 0.01, 0.05, 0.1, 0.15, 0.2, 0.25, 0.3, 0.4, 0.5};
+	private final double[] cellcountPercentages;
+	private final String cellcountModel;
+	private final double cellcountConcentration;
+	private final int sampleSize;
+	private final int numberOfQtls;
+	private final int noise;
+	private final long seed;
+	private final int threads;
+	private final long rowBufferBytes;
+	private final QtlGroupSpec qtlGroups;
+	private SimulationConfig(Builder builder){
+		this.cellcountPercentages = builder.cellcountPercentages.clone();
+		this.cellcountModel = builder.cellcountModel;
+		this.cellcountConcentration = builder.cellcountConcentration;
+		this.sampleSize = builder.sampleSize;
+		this.numberOfQtls = builder.numberOfQtls;
+		this.noise = builder.noise;
+		this.seed = builder.seed;
+		this.threads = builder.threads;
+		this.rowBufferBytes = builder.rowBufferBytes;
+		if(builder.qtlGroups != null){
+			this.qtlGroups = builder.qtlGroups;
+		}
+		else{
+			this.qtlGroups = QtlGroupSpec.grid(builder.genotypeCoefficientGroups, builder.interactionCoefficientGroups, builder.minorAlleleFrequencyGroups);
+		}
+	}
+
+	public static Builder builder(){
+		/*
+		 * Settings of a simulation, independent of how the output is written. Options that are not set get the same
+		 * defaults as on the command line, e.g.
+		 *
+		 *   SimulationConfig config = SimulationConfig.builder().sampleSize(500).numberOfQtls(1000).seed(1).build();
+		 */
+		return (new Builder());
+	}
+
+	public double[] getCellcountPercentages(){
+		return (cellcountPercentages.clone());
+	}
+	public String getCellcountModel(){
+		return (cellcountModel);
+	}
+	public double getCellcountConcentration(){
+		return (cellcountConcentration);
+	}
+	public int getNumberOfCelltypes(){
+		return (cellcountPercentages.length);
+	}
+	public int getSampleSize(){
+		return (sampleSize);
+	}
+	public int getNumberOfQtls(){
+		/*
+		 * @return Number of QTLs to divide over the groups, the number that is simulated is QtlRowSimulator.getNumberOfQtls()
+		 */
+		return (numberOfQtls);
+	}
+	public int getNoise(){
+		return (noise);
+	}
+	public long getSeed(){
+		return (seed);
+	}
+	public int getThreads(){
+		return (threads);
+	}
+	public long getRowBufferBytes(){
+		return (rowBufferBytes);
+	}
+	public QtlGroupSpec getQtlGroups(){
+		return (qtlGroups);
+	}
+
+	public static class Builder {
+		private double[] cellcountPercentages = {70, 20, 7, 3};
+		private String cellcountModel = "normal";
+		private double cellcountConcentration = 100;
+		private int sampleSize = 100;
+		private int numberOfQtls = 1000;
+		private int noise = 10;
+		private long seed = new Random().nextLong();
+		private int threads = 1;
+		private long rowBufferBytes = 256L << 20;
+		private double[] genotypeCoefficientGroups = DEFAULT_COEFFICIENT_GROUPS;
+		private double[] interactionCoefficientGroups = DEFAULT_COEFFICIENT_GROUPS;
+		private double[] minorAlleleFrequencyGroups = DEFAULT_MINOR_ALLELE_FREQUENCY_GROUPS;
+		private QtlGroupSpec qtlGroups = null;
+		private Builder(){
+		}
+		public Builder cellcountPercentages(double... cellcountPercentages){
+			this.cellcountPercentages = cellcountPercentages;
+			return (this);
+		}
+		public Builder cellcountModel(String cellcountModel){
+			/*
+			 * normal (default): every celltype % from N(cellcount, cellcount/10) on its own. dirichlet: the % of a sample
+			 * from a Dirichlet distribution around the cellcount percentages, so that they add up to 100
+			 */
+			this.cellcountModel = cellcountModel;
+			return (this);
+		}
+		public Builder cellcountConcentration(double cellcountConcentration){
+			/*
+			 * Sum of the Dirichlet parameters of the dirichlet cellcount model, the higher the concentration the closer the
+			 * % of the samples are to the cellcount percentages
+			 */
+			this.cellcountConcentration = cellcountConcentration;
+			return (this);
+		}
+		public Builder sampleSize(int sampleSize){
+			this.sampleSize = sampleSize;
+			return (this);
+		}
+		public Builder numberOfQtls(int numberOfQtls){
+			this.numberOfQtls = numberOfQtls;
+			return (this);
+		}
+		public Builder noise(int noise){
+			this.noise = noise;
+			return (this);
+		}
+		public Builder seed(long seed){
+			this.seed = seed;
+			return (this);
+		}
+		public Builder threads(int threads){
+			this.threads = threads;
+			return (this);
+		}
+		public Builder rowBufferBytes(long rowBufferBytes){
+			/*
+			 * Heap budget for QTLs that are simulated ahead of the consumer when simulating with more than one thread.
+			 * When the budget is used up the simulation threads wait for the consumer. At least one QTL per chunk is
+			 * always simulated, also when one QTL is larger than the budget
+			 */
+			this.rowBufferBytes = rowBufferBytes;
+			return (this);
+		}
+		public Builder genotypeCoefficientGroups(double... genotypeCoefficientGroups){
+			this.genotypeCoefficientGroups = genotypeCoefficientGroups;
+			return (this);
+		}
+		public Builder interactionCoefficientGroups(double... interactionCoefficientGroups){
+			this.interactionCoefficientGroups = interactionCoefficientGroups;
+			return (this);
+		}
+		public Builder minorAlleleFrequencyGroups(double... minorAlleleFrequencyGroups){
+			this.minorAlleleFrequencyGroups = minorAlleleFrequencyGroups;
+			return (this);
+		}
+		public Builder qtlGroups(QtlGroupSpec qtlGroups){
+			/*
+			 * Groups of QTLs, e.g. from QtlGroupSpec.read(). Replaces the grid of the genotype coefficient, interaction
+			 * coefficient and MAF groups
+			 */
+			this.qtlGroups = qtlGroups;
+			return (this);
+		}
+		public SimulationConfig build(){
+			if(cellcountPercentages.length == 0){
+				throw new IllegalArgumentException("At least one cellcount percentage is needed");
+			}
+			if(!cellcountModel.equals("normal") && !cellcountModel.equals("dirichlet")){
+				throw new IllegalArgumentException("Cellcount model has to be normal or dirichlet, was: "+cellcountModel);
+			}
+			if(cellcountModel.equals("dirichlet")){
+				// with one celltype every % is 100, which can not be scaled between 0 and 4
+				if(cellcountPercentages.length < 2){
+					throw new IllegalArgumentException("The dirichlet cellcount model needs at least 2 celltypes, was: "+Integer.toString(cellcountPercentages.length));
+				}
+				if(!(cellcountConcentration > 0) || Double.isInfinite(cellcountConcentration)){
+					throw new IllegalArgumentException("Cellcount concentration has to be a number > 0, was: "+Double.toString(cellcountConcentration));
+				}
+				for (double cellcountPercentage : cellcountPercentages){
+					if(!(cellcountPercentage > 0)){
+						throw new IllegalArgumentException("The dirichlet cellcount model needs cellcount percentages > 0, was: "+Double.toString(cellcountPercentage));
+					}
+				}
+			}
+			if(sampleSize < 1){
+				throw new IllegalArgumentException("Sample size has to be at least 1, was: "+Integer.toString(sampleSize));
+			}
+			if(numberOfQtls < 1){
+				throw new IllegalArgumentException("Number of QTLs has to be at least 1, was: "+Integer.toString(numberOfQtls));
+			}
+			if(threads < 1){
+				throw new IllegalArgumentException("Number of threads has to be at least 1, was: "+Integer.toString(threads));
+			}
+			if(rowBufferBytes < 1){
+				throw new IllegalArgumentException("Row buffer budget has to be positive, was: "+Long.toString(rowBufferBytes));
+			}
+			if(genotypeCoefficientGroups.length == 0 || interactionCoefficientGroups.length == 0 || minorAlleleFrequencyGroups.length == 0){
+				throw new IllegalArgumentException("Genotype coefficient, interaction coefficient and MAF groups can not be empty");
+			}
+			return (new SimulationConfig(this));
+		}
+	}
+}
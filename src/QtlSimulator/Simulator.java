@@ -0,0 +1,146 @@
+package QtlSimulator;
+
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public class Simulator {
+	// number of consecutive QTLs simulated in one task when simulating with more than one thread
+	private static final int CHUNK_SIZE = 16;
+	private final SimulationConfig config;
+	private final CellcountMatrix cellcountMatrix;
+	private final QtlRowSimulator rowSimulator;
+	public Simulator(SimulationConfig config){
+		/*
+		 * Simulate expression, genotype and cellcount %. The cellcount % are distributions around the pre-selected means. The expression
+		 * is y = error + (B1 * cellcount) + (B2 * genotype)
+		 *
+		 * The cellcounts are simulated here, the QTLs lazily when they are read from iterator() or stream(), so that
+		 * QTLs can be used directly without writing and parsing files, e.g.
+		 *
+		 *   Simulator simulator = new Simulator(SimulationConfig.builder().sampleSize(500).seed(1).build());
+		 *   try (SimulatedQtlIterator qtls = simulator.iterator()){
+		 *     while(qtls.hasNext()){
+		 *       SimulatedQtl qtl = qtls.next();
+		 *       ...
+		 *     }
+		 *   }
+		 *
+		 * Simulator is not Iterable on purpose: with more than one thread the iterator has to be closed when not all QTLs
+		 * are read, which a for-each loop can not do
+		 *
+		 * Main part of simulation. Do:
+		 * 1. Simulate celltype percentages in chunks of samples, in parallel (CellcountSimulator). Loop over number of samples
+		 *   2. Loop over cellcount percentages (from command line)
+		 *     3. Make NomralDistribution with mean;SD cellcount;cellcount/10, or with the dirichlet model a Gamma(concentration * cellcount/100)
+		 *     4. Sample from the normaldistribution; if sample < 0; sample = random(0,1). Dirichlet: divide by the sum of the samples
+		 * 5. Make a celltypeCoefficientDistribution with mean;SD 1;0.5
+		 * 6. Loop over range 0 - <genotypeCoefficientGroups> for the genotypeCoefficient (e.g. -3, 0, 3)             -> j
+		 * 	 7. Loop over range 0 - <interactionCoefficientGroups> for the interactionCoefficient (e.g. -5, 0, 5)     -> y
+		 *     8. Make NormalDistribution biological noise, genotypeCoefficient, interactionCoefficient,
+		 * 				with mean;SD getNoise();getNoise()/4, j;0.5, y;0.5                                            <- The biological noise distribution is the distribution over the genes (QTL), later is used as mean for distribution over the samples per gene
+		 *     9. Loop over the QTLs of the group (QtlGroupSpec.getQtlsPerGroup())      				  			  <- the QTLs from cmd are divided over the groups by weight, so if 100 QTLs and 3 groups, 34, 33 and 33 QTLs
+		 *       10. Make NormalDistribution celltypeCoeeficient with mean+SD 1+0.5
+		 *       11. Loop over all the samples
+		 *         12. From the previously made distributions, sample celltypeCoefficient, noise, genotypeCoefficient, interactionCoefficient
+		 *         13. Make NormalDistributiotn with mean;SD noise;abs(noise/6) (over genes)                           <- Distribution is the samples variance per gene
+		 *         14. SimulatedExpression = sample from step 10.
+		 *         15. Loop over the number of celltypes
+		 *           16. Calculate cellcountFactor <- (cellcount from step 4.)/(cellcount from command line)
+		 *           17. SimulatedExpression += (celltypeCoefficient * cellcountFactor) +
+												(genotypeCoefficient * genotype) +
+												(interactionCoefficient * genotype * cellcountFactor);
+		 *
+		 * @param config Settings of the simulation
+		 */
+		this.config = config;
+		this.cellcountMatrix = CellcountSimulator.simulate(config);
+		this.rowSimulator = new QtlRowSimulator(config, cellcountMatrix);
+	}
+
+	public SimulationConfig getConfig(){
+		return (config);
+	}
+	public CellcountMatrix getCellcountMatrix(){
+		return (cellcountMatrix);
+	}
+	public int getNumberOfQtls(){
+		/*
+		 * Number of QTLs over all groups, QTLs are numbered 1 - getNumberOfQtls()
+		 */
+		return (rowSimulator.getNumberOfQtls());
+	}
+
+	public SimulatedQtl simulate(int qtlNumber){
+		/*
+		 * Simulate a single QTL. The result is the same as the QTL with this number from iterator()
+		 *
+		 * @param qtlNumber The 1-based QTL number
+		 */
+		return (rowSimulator.simulate(qtlNumber));
+	}
+
+	public SimulatedQtl simulate(int qtlNumber, SimulatedQtl reusedRow){
+		/*
+		 * Simulate a single QTL into the arrays of a row that is no longer used
+		 *
+		 * @param reusedRow Row of an earlier QTL of this simulator to overwrite, or null to allocate a new row
+		 */
+		return (rowSimulator.simulate(qtlNumber, reusedRow));
+	}
+
+	public static long getRowBytes(int numberOfSamples, int numberOfCelltypes){
+		/*
+		 * @return Approximate heap size of one SimulatedQtl, expression and per celltype expression as doubles and genotypes as bytes
+		 */
+		return ((long) numberOfSamples * (numberOfCelltypes + 1) * 8 + numberOfSamples + 64 * (numberOfCelltypes + 2));
+	}
+
+	public SimulatedQtlIterator iterator(){
+		return (iterator(1, getNumberOfQtls()));
+	}
+
+	public SimulatedQtlIterator iterator(int firstQtl, int lastQtl){
+		/*
+		 * @param firstQtl 1-based number of the first QTL to simulate
+		 *
+		 * @param lastQtl 1-based number of the last QTL to simulate (inclusive)
+		 *
+		 * @return Iterator that simulates the QTLs in QTL number order on the configured number of threads
+		 */
+		return (iterator(firstQtl, lastQtl, null));
+	}
+
+	SimulatedQtlIterator iterator(int firstQtl, int lastQtl, RunMetrics runMetrics){
+		if(firstQtl < 1 || lastQtl > getNumberOfQtls()){
+			throw new IllegalArgumentException("QTLs are numbered 1 - "+Integer.toString(getNumberOfQtls())+", asked for "+
+					Integer.toString(firstQtl)+" - "+Integer.toString(lastQtl));
+		}
+		// QTLs simulated ahead of the consumer are limited by the row buffer budget, with large sample sizes in smaller chunks
+		int threads = config.getThreads();
+		long maxRowsInFlight = Math.max(1, config.getRowBufferBytes() / getRowBytes(config.getSampleSize(), config.getNumberOfCelltypes()));
+		int chunkSize = (int) Math.max(1, Math.min(CHUNK_SIZE, maxRowsInFlight / (2 * threads)));
+		int maxChunksInFlight = (int) Math.max(1, Math.min(2 * threads, maxRowsInFlight / chunkSize));
+		return (new SimulatedQtlIterator(rowSimulator, firstQtl, lastQtl, threads, chunkSize, maxChunksInFlight, runMetrics));
+	}
+
+	public Stream<SimulatedQtl> stream(){
+		return (stream(1, getNumberOfQtls()));
+	}
+
+	public Stream<SimulatedQtl> stream(int firstQtl, int lastQtl){
+		/*
+		 * Sequential stream of the QTLs, simulated on the configured number of threads. Closing the stream stops the
+		 * simulation threads
+		 */
+		final SimulatedQtlIterator iterator = iterator(firstQtl, lastQtl);
+		Spliterator<SimulatedQtl> spliterator = Spliterators.spliterator(iterator, Math.max(0, lastQtl - firstQtl + 1),
+				Spliterator.ORDERED | Spliterator.NONNULL);
+		return (StreamSupport.stream(spliterator, false).onClose(new Runnable() {
+			public void run(){
+				iterator.close();
+			}
+		}));
+	}
+}
@@ -0,0 +1,188 @@
+package QtlSimulator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class TsvMatrixWriter implements MatrixWriter {
+	public static final int BUFFER_SIZE = 1 << 16;
+	// longest number written by writeDouble/writeLong: sign, 19 digits, decimal point and at most 15 decimals
+	private static final int MAX_NUMBER_LENGTH = 40;
+	private static final long[] POWERS_OF_TEN = new long[19];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++){
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i-1] * 10;
+		}
+	}
+	private final ByteBufferOutput output;
+	private ByteBuffer buffer;
+	private byte[] bytes;
+	private int capacity;
+	private final byte[] digits = new byte[20];
+	private final int precision;
+	private final long precisionScale;
+	private final double maxFixedValue;
+	private int position = 0;
+	public TsvMatrixWriter(File file, int precision) throws IOException{
+		/*
+		 * Writes tab separated matrices to a file from the calling thread
+		 *
+		 * @param file File to write to, is overwritten if it exists
+		 *
+		 * @param precision Number of decimals to write doubles with (0-15)
+		 */
+		this(new ChannelOutput(new FileOutputStream(file).getChannel(), BUFFER_SIZE), precision);
+	}
+
+	public TsvMatrixWriter(ByteBufferOutput output, int precision) throws IOException{
+		/*
+		 * Writes tab separated matrices. Numbers are formatted with a fixed number of decimals directly into a
+		 * byte buffer, which is handed to the output when full, so writing a value allocates nothing.
+		 *
+		 * @param output Output that takes the filled buffers, e.g. a file channel or a BackgroundWriter
+		 *
+		 * @param precision Number of decimals to write doubles with (0-15)
+		 */
+		if(precision < 0 || precision > 15){
+			throw new IllegalArgumentException("Precision has to be between 0 and 15, was: "+Integer.toString(precision));
+		}
+		this.output = output;
+		setBuffer(output.getBuffer());
+		this.precision = precision;
+		this.precisionScale = POWERS_OF_TEN[precision];
+		// above this the scaled value does not fit in a long anymore
+		this.maxFixedValue = (double) Long.MAX_VALUE / precisionScale;
+	}
+
+	public void writeString(String value) throws IOException{
+		/*
+		 * Write an ASCII string, e.g. a sample or QTL name
+		 */
+		int length = value.length();
+		for (int i = 0; i < length; i++){
+			if(position == capacity){
+				flushBuffer();
+			}
+			bytes[position++] = (byte) value.charAt(i);
+		}
+	}
+
+	public void writeTab() throws IOException{
+		if(position == capacity){
+			flushBuffer();
+		}
+		bytes[position++] = '\t';
+	}
+
+	public void newLine() throws IOException{
+		if(position == capacity){
+			flushBuffer();
+		}
+		bytes[position++] = '\n';
+	}
+
+	public void writeLong(long value) throws IOException{
+		if(capacity - position < MAX_NUMBER_LENGTH){
+			flushBuffer();
+		}
+		if(value < 0){
+			if(value == Long.MIN_VALUE){
+				writeString(Long.toString(value));
+				return;
+			}
+			bytes[position++] = '-';
+			value = -value;
+		}
+		writeDigits(value, 1);
+	}
+
+	public void writeDouble(double value) throws IOException{
+		/*
+		 * Write a double with <precision> decimals, rounded half up. Values that are too large to write as
+		 * fixed decimal (and NaN/Infinity) are written with Double.toString()
+		 */
+		double absoluteValue = Math.abs(value);
+		if(!(absoluteValue < maxFixedValue)){
+			writeString(Double.toString(value));
+			return;
+		}
+		if(capacity - position < MAX_NUMBER_LENGTH){
+			flushBuffer();
+		}
+		long scaled = Math.round(absoluteValue * precisionScale);
+		if(value < 0 && scaled != 0){
+			bytes[position++] = '-';
+		}
+		writeDigits(scaled / precisionScale, 1);
+		if(precision > 0){
+			bytes[position++] = '.';
+			writeDigits(scaled % precisionScale, precision);
+		}
+	}
+
+	public void writeRow(String rowName, double[] values) throws IOException{
+		/*
+		 * Write the row name followed by the tab separated values and a newline
+		 */
+		writeString(rowName);
+		for (double value : values){
+			writeTab();
+			writeDouble(value);
+		}
+		newLine();
+	}
+
+	public void writeRow(String rowName, byte[] values) throws IOException{
+		writeString(rowName);
+		for (byte value : values){
+			writeTab();
+			writeLong(value);
+		}
+		newLine();
+	}
+
+	public void flush() throws IOException{
+		flushBuffer();
+	}
+
+	public void close() throws IOException{
+		buffer.position(position);
+		try {
+			output.write(buffer);
+		}
+		finally{
+			buffer = null;
+			output.close();
+		}
+	}
+
+	private void writeDigits(long value, int minimumDigits){
+		// write the digits of a positive value, left padded with zeros to minimumDigits
+		int numberOfDigits = 0;
+		do {
+			digits[numberOfDigits++] = (byte) ('0' + (value % 10));
+			value /= 10;
+		} while (value != 0);
+		for (int i = numberOfDigits; i < minimumDigits; i++){
+			bytes[position++] = '0';
+		}
+		while (numberOfDigits > 0){
+			bytes[position++] = digits[--numberOfDigits];
+		}
+	}
+
+	private void flushBuffer() throws IOException{
+		buffer.position(position);
+		output.write(buffer);
+		setBuffer(output.getBuffer());
+	}
+
+	private void setBuffer(ByteBuffer newBuffer){
+		buffer = newBuffer;
+		bytes = newBuffer.array();
+		capacity = newBuffer.capacity();
+		position = 0;
+	}
+}
@@ -0,0 +1,64 @@
+package QtlSimulator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class QtlSimulatorTest {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void sameSeedGivesIdenticalOutput() throws Exception{
+		/*
+		 * Runs with the same seed give byte-identical output files, also with a different number of threads
+		 */
+		File first = simulate("first", "-t", "1");
+		File second = simulate("second", "-t", "1");
+		File fourThreads = simulate("fourThreads", "-t", "4");
+		assertSameFiles(first, second);
+		assertSameFiles(first, fourThreads);
+	}
+
+	private File simulate(String name, String... extraArgs) throws Exception{
+		File outfolder = temporaryFolder.newFolder(name);
+		String[] args = new String[]{"-o", outfolder.getPath(), "-s", "50", "-n", "200", "--seed", "7", "--progress-interval", "0"};
+		String[] allArgs = Arrays.copyOf(args, args.length + extraArgs.length);
+		System.arraycopy(extraArgs, 0, allArgs, args.length, extraArgs.length);
+		QtlSimulator.main(allArgs);
+		return (outfolder);
+	}
+
+	private static void assertSameFiles(File expectedFolder, File actualFolder) throws IOException{
+		// run_metrics.json has the timings of the run
+		String[] expectedFiles = outputFiles(expectedFolder);
+		assertArrayEquals(expectedFiles, outputFiles(actualFolder));
+		assertEquals(8, expectedFiles.length);
+		for (String fileName : expectedFiles){
+			assertArrayEquals(fileName+" differs", Files.readAllBytes(new File(expectedFolder, fileName).toPath()),
+					Files.readAllBytes(new File(actualFolder, fileName).toPath()));
+		}
+	}
+
+	private static String[] outputFiles(File folder){
+		File[] files = folder.listFiles();
+		String[] fileNames = new String[files.length];
+		int n = 0;
+		for (File file : files){
+			if(!file.getName().equals("run_metrics.json")){
+				fileNames[n++] = file.getName();
+			}
+		}
+		fileNames = Arrays.copyOf(fileNames, n);
+		Arrays.sort(fileNames);
+		return (fileNames);
+	}
+}
@@ -0,0 +1,42 @@
+package QtlSimulator;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ShardMergerTest {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void partialSetOfShardsIsRefused() throws Exception{
+		/*
+		 * Merging 2 shards of a run with 3 shards fails, for the first two shards as well as the last two
+		 */
+		File[] shards = new File[3];
+		for (int i = 0; i < shards.length; i++){
+			shards[i] = temporaryFolder.newFolder("shard_"+Integer.toString(i));
+			QtlSimulator.main(new String[]{"-o", shards[i].getPath(), "-s", "50", "-n", "200", "--seed", "7",
+					"--progress-interval", "0", "--shard-index", Integer.toString(i), "--shard-count", "3"});
+		}
+		assertMergeFails(new File[]{shards[0], shards[1]}, "first");
+		assertMergeFails(new File[]{shards[1], shards[2]}, "last");
+	}
+
+	private void assertMergeFails(File[] shardFolders, String name) throws IOException{
+		File outfolder = temporaryFolder.newFolder(name);
+		try {
+			ShardMerger.merge(shardFolders, outfolder);
+			fail("Merging an incomplete set of shards did not fail");
+		} catch (IOException e) {
+			// the shards are checked before anything is written
+			assertFalse(new File(outfolder, "simulatedCellcounts.csv").exists());
+		}
+	}
+}
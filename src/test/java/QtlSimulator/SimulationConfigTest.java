@@ -0,0 +1,18 @@
+package QtlSimulator;
+
+import org.junit.Test;
+
+public class SimulationConfigTest {
+	@Test(expected = IllegalArgumentException.class)
+	public void dirichletWithOneCelltypeIsRefused(){
+		/*
+		 * With one celltype every dirichlet % is 100, so the cellcounts can not be scaled
+		 */
+		SimulationConfig.builder().cellcountPercentages(100).cellcountModel("dirichlet").build();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void dirichletWithOneCelltypeIsRefusedOnTheCommandLine() throws Exception{
+		new CommandLineOptions().parseCommandLine(new String[]{"-o", "unused", "-c", "100", "--cellcount-model", "dirichlet"});
+	}
+}